@@ -0,0 +1,69 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.bench.ber;
+
+import javacard.framework.JCSystem;
+import org.openjavacard.lib.ber.BERReader;
+import org.openjavacard.lib.ber.BERWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for copy chains from BERReader into BERWriter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BERCopyBenchmark {
+
+    /** Number of 61 entries in the template */
+    @Param({"1", "8", "24"})
+    public int entries;
+
+    private byte[] mData;
+    private byte[] mOut;
+    private BERReader mReader;
+    private BERWriter mWriter;
+
+    @Setup
+    public void setup() {
+        mData = BERTemplates.encode(entries);
+        mOut = new byte[BERTemplates.MAX_SIZE];
+        mReader = new BERReader(BERTemplates.MAX_DEPTH, JCSystem.CLEAR_ON_DESELECT);
+        mWriter = new BERWriter(BERTemplates.MAX_TAGS, BERTemplates.MAX_DEPTH,
+                                (short)256, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Benchmark
+    public short copy() {
+        mWriter.begin((short)mOut.length);
+        mReader.parse(mData, (short)0, (short)mData.length, mWriter);
+        return mWriter.finish(mOut, (short)0, (short)mOut.length);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.bench.ber;
+
+import javacard.framework.JCSystem;
+import org.openjavacard.lib.ber.BERFilter;
+import org.openjavacard.lib.ber.BERIndex;
+import org.openjavacard.lib.ber.BERReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for BERReader
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BERReaderBenchmark {
+
+    /** Number of 61 entries in the template */
+    @Param({"1", "8", "24"})
+    public int entries;
+
+    private byte[] mData;
+    private BERReader mReader;
+    private BERFilter mFilter;
+    private BERIndex mIndex;
+    private BERTemplates.Checksum mHandler;
+
+    @Setup
+    public void setup() {
+        mData = BERTemplates.encode(entries);
+        mReader = new BERReader(BERTemplates.MAX_DEPTH, (short)256, JCSystem.CLEAR_ON_DESELECT);
+        mFilter = new BERFilter(new byte[] {
+                (byte)0x02, (byte)0x6F, (byte)0x84,
+        });
+        mIndex = new BERIndex((short)BERTemplates.MAX_TAGS, JCSystem.CLEAR_ON_DESELECT);
+        mHandler = new BERTemplates.Checksum();
+    }
+
+    @Benchmark
+    public int parse() {
+        mReader.parse(mData, (short)0, (short)mData.length, mHandler);
+        return mHandler.sum;
+    }
+
+    @Benchmark
+    public int parseFiltered() {
+        mReader.parse(mData, (short)0, (short)mData.length, mFilter, mHandler);
+        return mHandler.sum;
+    }
+
+    @Benchmark
+    public int parseChunked() {
+        short len = (short)mData.length;
+        mReader.streamBegin();
+        for(short off = 0; off < len; off += 64) {
+            short chunk = (short)Math.min(64, len - off);
+            mReader.streamChunk(mData, off, chunk, mHandler);
+        }
+        mReader.streamFinish();
+        return mHandler.sum;
+    }
+
+    @Benchmark
+    public short cursorFind() {
+        mReader.cursorBegin((short)0, (short)mData.length);
+        mReader.cursorFind(mData, (short)0x6F00);
+        mReader.cursorEnter();
+        mReader.cursorFind(mData, (short)0x8400);
+        return mReader.cursorOffset();
+    }
+
+    @Benchmark
+    public short index() {
+        mReader.index(mData, (short)0, (short)mData.length, mIndex);
+        return mIndex.getCount();
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.bench.ber;
+
+import org.openjavacard.lib.ber.BERHandler;
+import org.openjavacard.lib.ber.BERSource;
+import org.openjavacard.lib.ber.BERWriter;
+
+/**
+ * Realistic BER templates for benchmarks
+ * <p/>
+ * Templates are shaped like an EMV-style FCI:
+ * 6F { 84, A5 { 88, 5F2D, BF0C { 61 { 4F, 50, 87, 9F12 } ... } } }
+ * with a variable number of 61 entries.
+ * <p/>
+ */
+final class BERTemplates {
+
+    /** Maximum number of tags used by a template */
+    static final byte MAX_TAGS = (byte)127;
+    /** Maximum depth used by a template */
+    static final byte MAX_DEPTH = (byte)8;
+    /** Size of temporary buffers */
+    static final short MAX_SIZE = (short)2048;
+
+    static final byte[] AID = new byte[] {
+            (byte)0xA0, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x10, (byte)0x10
+    };
+    static final byte[] LABEL = new byte[] {
+            'O', 'P', 'E', 'N', 'J', 'A', 'V', 'A', 'C', 'A', 'R', 'D'
+    };
+    static final byte[] LANGUAGE = new byte[] {
+            'e', 'n', 'd', 'e'
+    };
+
+    private BERTemplates() {
+    }
+
+    /**
+     * Build the template into the given writer
+     * @param writer to use
+     * @param entries number of 61 entries
+     */
+    static void build(BERWriter writer, int entries) {
+        writer.begin(MAX_SIZE);
+        writer.beginConstructed((short)0x6F00);
+        writer.buildPrimitive((short)0x8400, AID, (short)0, (short)AID.length);
+        writer.beginConstructed((short)0xA500);
+        writer.primitiveByte((short)0x8800, (byte)0x01);
+        writer.buildPrimitive((short)0x5F2D, LANGUAGE, (short)0, (short)LANGUAGE.length);
+        writer.beginConstructed((short)0xBF0C);
+        for(int i = 0; i < entries; i++) {
+            writer.beginConstructed((short)0x6100);
+            writer.buildPrimitive((short)0x4F00, AID, (short)0, (short)AID.length);
+            writer.buildPrimitive((short)0x5000, LABEL, (short)0, (short)LABEL.length);
+            writer.primitiveByte((short)0x8700, (byte)i);
+            writer.primitiveShort((short)0x9F12, (short)i);
+            writer.endConstructed();
+        }
+        writer.endConstructed();
+        writer.endConstructed();
+        writer.endConstructed();
+    }
+
+    /**
+     * Create the encoded template
+     * @param entries number of 61 entries
+     * @return encoded template
+     */
+    static byte[] encode(int entries) {
+        BERWriter writer = new BERWriter(MAX_TAGS, MAX_DEPTH, (short)256);
+        byte[] buf = new byte[MAX_SIZE];
+        build(writer, entries);
+        short len = writer.finish(buf, (short)0, MAX_SIZE);
+        byte[] res = new byte[len];
+        System.arraycopy(buf, 0, res, 0, len);
+        return res;
+    }
+
+    /**
+     * Handler that accumulates a checksum of all events
+     */
+    static final class Checksum implements BERHandler {
+        int sum;
+        public boolean handlePrimitive(BERSource source, byte depth, short tag,
+                                       byte[] dataBuf, short dataOff, short dataLen) {
+            sum += tag + dataOff + dataLen;
+            return true;
+        }
+        public boolean handleBeginConstructed(BERSource source, byte depth, short tag) {
+            sum += tag;
+            return true;
+        }
+        public boolean handleFinishConstructed(BERSource source, byte depth, short tag) {
+            sum -= depth;
+            return true;
+        }
+    }
+
+}
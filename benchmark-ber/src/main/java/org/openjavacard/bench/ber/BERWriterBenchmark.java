@@ -0,0 +1,96 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.bench.ber;
+
+import javacard.framework.JCSystem;
+import org.openjavacard.lib.ber.BERReverseWriter;
+import org.openjavacard.lib.ber.BERWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for BERWriter and BERReverseWriter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BERWriterBenchmark {
+
+    /** Number of 61 entries in the template */
+    @Param({"1", "8", "24"})
+    public int entries;
+
+    private byte[] mOut;
+    private BERWriter mWriter;
+    private BERReverseWriter mReverse;
+
+    @Setup
+    public void setup() {
+        mOut = new byte[BERTemplates.MAX_SIZE];
+        mWriter = new BERWriter(BERTemplates.MAX_TAGS, BERTemplates.MAX_DEPTH,
+                                (short)256, JCSystem.CLEAR_ON_DESELECT);
+        mReverse = new BERReverseWriter(JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Benchmark
+    public int build() {
+        BERTemplates.build(mWriter, entries);
+        return mWriter.getCurrentLength();
+    }
+
+    @Benchmark
+    public short buildAndFinish() {
+        BERTemplates.build(mWriter, entries);
+        return mWriter.finish(mOut, (short)0, (short)mOut.length);
+    }
+
+    @Benchmark
+    public short buildReverse() {
+        byte[] out = mOut;
+        mReverse.begin((short)0, (short)out.length);
+        short fci = mReverse.mark();
+        short prop = mReverse.mark();
+        short dd = mReverse.mark();
+        for(int i = entries - 1; i >= 0; i--) {
+            short entry = mReverse.mark();
+            mReverse.primitiveShort(out, (short)0x9F12, (short)i);
+            mReverse.primitiveByte(out, (short)0x8700, (byte)i);
+            mReverse.primitive(out, (short)0x5000, BERTemplates.LABEL, (short)0, (short)BERTemplates.LABEL.length);
+            mReverse.primitive(out, (short)0x4F00, BERTemplates.AID, (short)0, (short)BERTemplates.AID.length);
+            mReverse.constructed(out, (short)0x6100, entry);
+        }
+        mReverse.constructed(out, (short)0xBF0C, dd);
+        mReverse.primitive(out, (short)0x5F2D, BERTemplates.LANGUAGE, (short)0, (short)BERTemplates.LANGUAGE.length);
+        mReverse.primitiveByte(out, (short)0x8800, (byte)0x01);
+        mReverse.constructed(out, (short)0xA500, prop);
+        mReverse.primitive(out, (short)0x8400, BERTemplates.AID, (short)0, (short)BERTemplates.AID.length);
+        mReverse.constructed(out, (short)0x6F00, fci);
+        return mReverse.getLength();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+
+/**
+ * Tag path filter for BER-TLV parsing
+ * <p/>
+ * A filter is a compiled list of tag paths such as 6F/A5/BF0C/61.
+ * When given to the BERReader only objects on these paths are
+ * passed to the handler. All other constructed objects are
+ * skipped by length without looking at their contents.
+ * <p/>
+ * The handler receives the ancestors of each path, every object
+ * matching a path and the complete contents of such objects.
+ * <p/>
+ * Paths are given as a byte array containing, for each path, the
+ * number of tags in the path followed by the tags in encoded form.
+ * The path 6F/A5/BF0C/61 is encoded as 04 6F A5 BF 0C 61.
+ * <p/>
+ * The array is referenced, not copied, and should be persistent.
+ * <p/>
+ */
+public final class BERFilter {
+
+    /** Match result: object is not on any path */
+    public static final byte MATCH_NONE = 0;
+    /** Match result: object is an ancestor of a path */
+    public static final byte MATCH_PREFIX = 1;
+    /** Match result: object matches a path or is inside a match */
+    public static final byte MATCH_FULL = 2;
+
+    /** Compiled path specification */
+    private final byte[] mPaths;
+
+    /**
+     * Construct a filter
+     * @param paths specification of paths
+     */
+    public BERFilter(byte[] paths) {
+        short off = 0;
+        short end = (short)paths.length;
+        // validate the specification
+        while(off < end) {
+            byte count = paths[off++];
+            if(count <= 0) {
+                error();
+            }
+            for(byte i = 0; i < count; i++) {
+                if(off >= end) {
+                    error();
+                }
+                if(BERTag.byteIsLongForm(paths[off++])) {
+                    if(off >= end || !BERTag.byteIsLast(paths[off++])) {
+                        error();
+                    }
+                }
+            }
+        }
+        mPaths = paths;
+    }
+
+    /**
+     * Match a tag path against the filter
+     * @param tags containing the path from the root
+     * @param depth of the last tag in the path
+     * @return one of the MATCH_* constants
+     */
+    public byte match(short[] tags, short depth) {
+        byte result = MATCH_NONE;
+        short off = 0;
+        short end = (short)mPaths.length;
+        while(off < end) {
+            byte count = mPaths[off++];
+            boolean same = true;
+            for(byte i = 0; i < count; i++) {
+                // decode the tag
+                byte b0 = mPaths[off++];
+                byte b1 = 0;
+                if(BERTag.byteIsLongForm(b0)) {
+                    b1 = mPaths[off++];
+                }
+                // compare if within given path
+                if(same && i <= depth) {
+                    short tag = (short)((b0 << 8) | (b1 & 0xFF));
+                    if(tag != tags[i]) {
+                        same = false;
+                    }
+                }
+            }
+            if(same) {
+                if(count <= (short)(depth + 1)) {
+                    return MATCH_FULL;
+                }
+                result = MATCH_PREFIX;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.Util;
+
+/**
+ * Frozen fragment of BER-TLV data
+ * <p/>
+ * A fragment holds BER objects that have been serialized once into
+ * a persistent array. It can then be inserted into a BERWriter as a
+ * single entry using BERWriter.buildFragment(), costing one copy
+ * when the output is emitted.
+ * <p/>
+ * This is intended for static parts of responses such as the
+ * constant tags of an FCI, which would otherwise be rebuilt
+ * for every request.
+ * <p/>
+ * @see org.openjavacard.lib.ber.BERWriter
+ */
+public final class BERFragment {
+
+    /** Persistent: encoded data */
+    private final byte[] mData;
+    /** Persistent: length of encoded data */
+    private short mLength;
+
+    /**
+     * Construct an empty fragment
+     * @param maxLength maximum length of encoded data
+     */
+    public BERFragment(short maxLength) {
+        mData = new byte[maxLength];
+        mLength = 0;
+    }
+
+    /** @return buffer containing the encoded data */
+    public byte[] getBuffer() {
+        return mData;
+    }
+
+    /** @return length of the encoded data */
+    public short getLength() {
+        return mLength;
+    }
+
+    /**
+     * Freeze the data prepared in the given writer
+     * <p/>
+     * The writer must be at top level.
+     * <p/>
+     * @param writer containing the data
+     */
+    public void freeze(BERWriter writer) {
+        mLength = 0;
+        mLength = writer.finish(mData, (short)0, (short)mData.length);
+    }
+
+    /**
+     * Freeze the given encoded data
+     * @param buf containing the data
+     * @param off of the data
+     * @param len of the data
+     */
+    public void freeze(byte[] buf, short off, short len) {
+        mLength = 0;
+        Util.arrayCopy(buf, off, mData, (short)0, len);
+        mLength = len;
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Offset index for BER-TLV data
+ * <p/>
+ * An index is built by BERReader.index() in a single pass over a buffer.
+ * It records tag, depth, value offset and value length of every object
+ * in document order. Lookups can then be answered from the index
+ * without parsing the buffer again.
+ * <p/>
+ * Entries are identified by their position in the index. The
+ * pseudo-entry -1 stands for the top level of the buffer.
+ * <p/>
+ * Offsets refer to the buffer that was indexed. The index
+ * becomes meaningless when the content of that buffer changes.
+ * <p/>
+ */
+public final class BERIndex {
+
+    /** Fixed: maximum number of entries */
+    private final short mMaxEntries;
+
+    /** Transient: state variables */
+    private final short[] mVars;
+    /** Number of transient variables */
+    private static final byte NUM_VAR = 1;
+    /** Variable: number of entries */
+    private static final byte VAR_COUNT = 0;
+
+    /** Transient: tags of entries */
+    private final short[] mTags;
+    /** Transient: depths of entries */
+    private final byte[] mDepths;
+    /** Transient: value offsets of entries */
+    private final short[] mOffs;
+    /** Transient: value lengths of entries */
+    private final short[] mLens;
+
+    /**
+     * Construct a transient index
+     * @param maxEntries maximum number of objects
+     * @param clearOn for transient state
+     */
+    public BERIndex(short maxEntries, byte clearOn) {
+        mMaxEntries = maxEntries;
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
+        mTags = JCSystem.makeTransientShortArray(maxEntries, clearOn);
+        mDepths = JCSystem.makeTransientByteArray(maxEntries, clearOn);
+        mOffs = JCSystem.makeTransientShortArray(maxEntries, clearOn);
+        mLens = JCSystem.makeTransientShortArray(maxEntries, clearOn);
+    }
+
+    /** @return number of entries */
+    public short getCount() {
+        return mVars[VAR_COUNT];
+    }
+
+    /** @return tag of the given entry */
+    public short getTag(short index) {
+        check(index);
+        return mTags[index];
+    }
+
+    /** @return depth of the given entry */
+    public byte getDepth(short index) {
+        check(index);
+        return mDepths[index];
+    }
+
+    /** @return value offset of the given entry */
+    public short getOffset(short index) {
+        check(index);
+        return mOffs[index];
+    }
+
+    /** @return value length of the given entry */
+    public short getLength(short index) {
+        check(index);
+        return mLens[index];
+    }
+
+    /**
+     * Find the first entry with the given tag
+     * @param tag to look for
+     * @return index of entry, -1 if not found
+     */
+    public short find(short tag) {
+        return findNext((short)-1, tag);
+    }
+
+    /**
+     * Find the next entry with the given tag in document order
+     * @param index to search after, -1 to search from the start
+     * @param tag to look for
+     * @return index of entry, -1 if not found
+     */
+    public short findNext(short index, short tag) {
+        short count = mVars[VAR_COUNT];
+        for(short i = (short)(index + 1); i < count; i++) {
+            if(mTags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first child with the given tag
+     * @param parent to search in, -1 for top level
+     * @param tag to look for
+     * @return index of entry, -1 if not found
+     */
+    public short findChild(short parent, short tag) {
+        short child = firstChild(parent);
+        while(child >= 0) {
+            if(mTags[child] == tag) {
+                return child;
+            }
+            child = nextSibling(child);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the first child of an entry
+     * @param parent to get child of, -1 for top level
+     * @return index of entry, -1 if none
+     */
+    public short firstChild(short parent) {
+        if(parent != -1) {
+            check(parent);
+        }
+        short child = (short)(parent + 1);
+        if(child >= mVars[VAR_COUNT]) {
+            return -1;
+        }
+        if(parent >= 0 && mDepths[child] != (byte)(mDepths[parent] + 1)) {
+            return -1;
+        }
+        return child;
+    }
+
+    /**
+     * Get the next sibling of an entry
+     * @param index to get sibling of
+     * @return index of entry, -1 if none
+     */
+    public short nextSibling(short index) {
+        check(index);
+        short count = mVars[VAR_COUNT];
+        byte depth = mDepths[index];
+        for(short i = (short)(index + 1); i < count; i++) {
+            byte d = mDepths[i];
+            if(d == depth) {
+                return i;
+            }
+            if(d < depth) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Internal: clear the index before building
+     */
+    void reset() {
+        mVars[VAR_COUNT] = 0;
+    }
+
+    /**
+     * Internal: add an entry while building
+     * @param tag of the object
+     * @param depth of the object
+     * @param off of the value
+     * @param len of the value
+     */
+    void add(short tag, byte depth, short off, short len) {
+        short index = mVars[VAR_COUNT];
+        if(index == mMaxEntries) {
+            error();
+        }
+        mTags[index] = tag;
+        mDepths[index] = depth;
+        mOffs[index] = off;
+        mLens[index] = len;
+        mVars[VAR_COUNT] = (short)(index + 1);
+    }
+
+    /**
+     * Internal: check an entry index
+     * @param index to check
+     */
+    private void check(short index) {
+        if(index < 0 || index >= mVars[VAR_COUNT]) {
+            error();
+        }
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -31,6 +31,11 @@ public final class BERLength {
     /* Length byte mask for long-case length */
     private static final byte LENGTH_SIZE_MASK = (byte)0x7F;
 
+    /** Length byte that indicates indefinite length */
+    public static final byte LENGTH_INDEFINITE = (byte)0x80;
+    /** Maximum number of bytes in a long-form length */
+    public static final byte LENGTH_MAX_BYTES = 4;
+
     /** @return true if the given first byte indicates short form */
     public static boolean isShortForm(byte firstByte) {
         return (firstByte & LENGTH_LONG_FLAG) == 0;
@@ -41,6 +46,11 @@ public final class BERLength {
         return (firstByte & LENGTH_LONG_FLAG) != 0;
     }
 
+    /** @return true if the given first byte indicates indefinite length */
+    public static boolean isIndefinite(byte firstByte) {
+        return firstByte == LENGTH_INDEFINITE;
+    }
+
     /** @return length represented by the given short-form first byte */
     public static byte shortFormLength(byte firstByte) {
         return (byte)(firstByte & LENGTH_SIZE_MASK);
@@ -51,6 +61,18 @@ public final class BERLength {
         return (byte)(firstByte & LENGTH_SIZE_MASK);
     }
 
+    /** @return value of a long-form length with count bytes, -1 if it does not fit a short */
+    public static short getLongForm(byte[] buf, short off, byte count) {
+        short result = 0;
+        for(byte i = 0; i < count; i++) {
+            if(result > 0x7F) {
+                return -1;
+            }
+            result = (short)((result << 8) | (buf[(short)(off + i)] & 0xFF));
+        }
+        return result;
+    }
+
     /** @return number of bytes required to represent given length */
     public static byte lengthSize(short length) {
         if(length <= 127) {
@@ -0,0 +1,150 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.JCSystem;
+
+/**
+ * Handler that feeds several handlers from one pass
+ * <p/>
+ * Every event is forwarded to a fixed array of downstream handlers
+ * in array order, so that one BERReader pass can feed several
+ * consumers, such as a file creator and a BERWriter.
+ * <p/>
+ * A downstream handler that returns false is detached and receives
+ * no further events. This does not abort parsing, so other handlers
+ * continue to receive events. Callers can check which handlers
+ * remained attached using isAttached() after the pass.
+ * <p/>
+ * Detachment is kept in transient state and must be
+ * reset using reset() before each pass.
+ * <p/>
+ */
+public final class BERMultiplexer implements BERHandler {
+
+    /** Fixed: downstream handlers */
+    private final BERHandler[] mHandlers;
+
+    /** Transient: detachment flags */
+    private final boolean[] mDetached;
+
+    /**
+     * Construct a multiplexer
+     * @param handlers to forward to
+     * @param clearOn for transient state
+     */
+    public BERMultiplexer(BERHandler[] handlers, byte clearOn) {
+        mHandlers = handlers;
+        mDetached = JCSystem.makeTransientBooleanArray((short)handlers.length, clearOn);
+    }
+
+    /**
+     * Attach all handlers again
+     */
+    public void reset() {
+        short count = (short)mDetached.length;
+        for(short i = 0; i < count; i++) {
+            mDetached[i] = false;
+        }
+    }
+
+    /**
+     * Check if a handler is still attached
+     * @param index of the handler
+     * @return true if attached
+     */
+    public boolean isAttached(short index) {
+        return !mDetached[index];
+    }
+
+    /** @return number of attached handlers */
+    public short getAttachedCount() {
+        short result = 0;
+        short count = (short)mDetached.length;
+        for(short i = 0; i < count; i++) {
+            if(!mDetached[i]) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forward a primitive object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag of object
+     * @param dataBuf containing value
+     * @param dataOff of value in dataBuf
+     * @param dataLen of value in dataBuf
+     * @return always true
+     */
+    public boolean handlePrimitive(BERSource source, byte depth, short tag,
+                                   byte[] dataBuf, short dataOff, short dataLen) {
+        short count = (short)mHandlers.length;
+        for(short i = 0; i < count; i++) {
+            if(!mDetached[i]) {
+                if(!mHandlers[i].handlePrimitive(source, depth, tag, dataBuf, dataOff, dataLen)) {
+                    mDetached[i] = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forward start of a constructed object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag of object
+     * @return always true
+     */
+    public boolean handleBeginConstructed(BERSource source, byte depth, short tag) {
+        short count = (short)mHandlers.length;
+        for(short i = 0; i < count; i++) {
+            if(!mDetached[i]) {
+                if(!mHandlers[i].handleBeginConstructed(source, depth, tag)) {
+                    mDetached[i] = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forward end of a constructed object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag of object
+     * @return always true
+     */
+    public boolean handleFinishConstructed(BERSource source, byte depth, short tag) {
+        short count = (short)mHandlers.length;
+        for(short i = 0; i < count; i++) {
+            if(!mDetached[i]) {
+                if(!mHandlers[i].handleFinishConstructed(source, depth, tag)) {
+                    mDetached[i] = true;
+                }
+            }
+        }
+        return true;
+    }
+
+}
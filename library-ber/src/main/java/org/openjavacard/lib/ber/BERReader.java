@@ -22,6 +22,7 @@ package org.openjavacard.lib.ber;
 import javacard.framework.ISO7816;
 import javacard.framework.ISOException;
 import javacard.framework.JCSystem;
+import javacard.framework.Util;
 
 /**
  * Reader for BER-TLV data
@@ -33,6 +34,9 @@ import javacard.framework.JCSystem;
  * client of this utility to parse a complete recursive TLV
  * structure without any memory allocation.
  * <p/>
+ * Parsing is iterative. Nesting is tracked on the transient stacks
+ * only, so the supported depth does not depend on the VM stack.
+ * <p/>
  * It is strongly recommended to keep instances of this class
  * permanently available by using a global reference. Doing so
  * prevents memory allocation, which should improve card life
@@ -45,6 +49,26 @@ import javacard.framework.JCSystem;
  * All internal state is kept in transient variables to prevent state
  * leaks and to harden this code against memory-based DoS.
  * <p/>
+ * Data that arrives in pieces, such as command data received using
+ * ISO7816 command chaining, can be parsed incrementally using the
+ * streaming interface. Primitives are delivered as soon as they are
+ * complete. Only values that straddle a chunk boundary are collected
+ * in the transient value buffer, all others are passed to the handler
+ * directly from the chunk.
+ * <p/>
+ * As an alternative to callbacks a pull-style cursor interface is
+ * provided. It allows stepping through objects one by one, skipping
+ * uninteresting constructed objects without looking at their contents.
+ * <p/>
+ * For repeated lookups in the same data an offset index can be built
+ * in a single pass, see BERIndex.
+ * <p/>
+ * Lengths may have up to 4 bytes if the value fits a short. Constructed
+ * objects may use indefinite length, in which case their contents end
+ * with an end-of-contents marker. Such levels are recorded on the offset
+ * stack as the complement of the enclosing limit, so they need no extra
+ * state. The cursor reports the length of their contents.
+ * <p/>
  */
 public final class BERReader implements BERSource {
 
@@ -54,7 +78,7 @@ public final class BERReader implements BERSource {
     /* Transient: parser variables */
     private final short[] mVars;
     /* Number of transient variables */
-    private static final byte NUM_VAR = 4;
+    private static final byte NUM_VAR = 9;
     /* Variable: initial offset into buffer */
     private static final byte VAR_BUF_OFF = 0;
     /* Variable: initial length of buffer */
@@ -63,21 +87,60 @@ public final class BERReader implements BERSource {
     private static final byte VAR_POSN    = 2;
     /* Variable: current recursion depth */
     private static final byte VAR_DEPTH   = 3;
+    /* Variable: streaming state */
+    private static final byte VAR_STATE   = 4;
+    /* Variable: streaming tag being read */
+    private static final byte VAR_TAG     = 5;
+    /* Variable: streaming length being read */
+    private static final byte VAR_LENGTH  = 6;
+    /* Variable: streaming bytes missing from length or value, cursor trailer size */
+    private static final byte VAR_COUNT   = 7;
+    /* Variable: cursor value position */
+    private static final byte VAR_VALUE   = 8;
+
+    /* Stream state: expecting first tag byte */
+    private static final byte STATE_TAG         = 0;
+    /* Stream state: expecting second tag byte */
+    private static final byte STATE_TAG_LONG    = 1;
+    /* Stream state: expecting first length byte */
+    private static final byte STATE_LENGTH      = 2;
+    /* Stream state: expecting further length bytes */
+    private static final byte STATE_LENGTH_LONG = 3;
+    /* Stream state: collecting a straddling value */
+    private static final byte STATE_VALUE       = 4;
+    /* Cursor state: positioned on an object */
+    private static final byte STATE_CURSOR      = 5;
 
     /* Transient: parser tag stack */
     private final short[] mTagStk;
     /* Transient: parser return stack */
     private final short[] mOffStk;
+    /* Transient: buffer for values straddling chunks */
+    private final byte[] mValBuf;
 
     /**
      * Construct transient-state BER reader
      * @param maxDepth maximum depth of TLV structures
      */
     public BERReader(byte maxDepth, byte clearOn) {
+        this(maxDepth, (short)0, clearOn);
+    }
+
+    /**
+     * Construct transient-state BER reader with streaming support
+     * @param maxDepth maximum depth of TLV structures
+     * @param maxValue maximum size of a value straddling chunks
+     */
+    public BERReader(byte maxDepth, short maxValue, byte clearOn) {
         mMaxDepth = maxDepth;
         mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
         mTagStk = JCSystem.makeTransientShortArray(maxDepth, clearOn);
         mOffStk = JCSystem.makeTransientShortArray(maxDepth, clearOn);
+        if(maxValue > 0) {
+            mValBuf = JCSystem.makeTransientByteArray(maxValue, clearOn);
+        } else {
+            mValBuf = null;
+        }
     }
 
     /**
@@ -88,114 +151,780 @@ public final class BERReader implements BERSource {
      * @param handler to call with results
      */
     public final void parse(byte[] buf, short off, short len, BERHandler handler) {
+        parse(buf, off, len, null, handler);
+    }
+
+    /**
+     * Parse a block of BER data, reporting only objects selected by a filter
+     * <p/>
+     * Constructed objects rejected by the filter are skipped
+     * without parsing their contents.
+     * <p/>
+     * @param buf to parse from
+     * @param off to start at
+     * @param len of data
+     * @param filter to apply, may be null
+     * @param handler to call with results
+     */
+    public final void parse(byte[] buf, short off, short len, BERFilter filter, BERHandler handler) {
+        parse(buf, off, len, filter, null, handler);
+    }
+
+    /**
+     * Parse a block of BER data, validating it against a schema
+     * <p/>
+     * Objects are checked against the schema as they are encountered
+     * and required objects are checked when their parent ends. Contents
+     * of objects skipped by the filter are not validated.
+     * <p/>
+     * @param buf to parse from
+     * @param off to start at
+     * @param len of data
+     * @param filter to apply, may be null
+     * @param schema to enforce, may be null
+     * @param handler to call with results
+     */
+    public final void parse(byte[] buf, short off, short len, BERFilter filter, BERSchema schema, BERHandler handler) {
+        // parser state is kept in locals
+        short posn = 0;
+        short depth = 0;
+        short end = len;
         // initialize state
         mVars[VAR_BUF_OFF] = off;
         mVars[VAR_BUF_LEN] = len;
-        mVars[VAR_POSN] = 0;
         mVars[VAR_DEPTH] = 0;
+        // start validation
+        if(schema != null) {
+            schema.reset();
+        }
         // parse nodes while input lasts
-        parseMultiple(buf, handler, len);
-    }
+        while(true) {
+            /* check for the end of a constructed object */
+            boolean finished = false;
+            if(posn == end) {
+                if(depth == 0) {
+                    break;
+                }
+                /* indefinite objects must be terminated */
+                if(mOffStk[(short)(depth - 1)] < 0) {
+                    parseError();
+                }
+                finished = true;
+            } else if(depth > 0 && mOffStk[(short)(depth - 1)] < 0
+                    && buf[(short)(off + posn)] == 0) {
+                /* end-of-contents of indefinite object */
+                if((short)(end - posn) < 2 || buf[(short)(off + posn + 1)] != 0) {
+                    parseError();
+                }
+                posn += 2;
+                finished = true;
+            }
+            /* finish constructed objects at their end */
+            if(finished) {
+                /* back up one level */
+                depth--;
+                short t = mTagStk[depth];
+                /* pop state */
+                mOffStk[depth] = 0;
+                mTagStk[depth] = 0;
+                /* determine end of the enclosing level */
+                if(depth == 0) {
+                    end = len;
+                } else {
+                    end = levelEnd(mOffStk[(short)(depth - 1)]);
+                }
+                /* check for required children */
+                if(schema != null && !schema.finish(t)) {
+                    parseError();
+                }
+                /* call finish handler */
+                if(!handler.handleFinishConstructed(this, (byte)depth, t)) {
+                    parseError();
+                }
+                continue;
+            }
 
-    /**
-     * Internal: recursively parse multiple BER objects
-     * @param buf we are reading from
-     * @param handler to call for every element
-     * @param end position to parse to
-     */
-    private void parseMultiple(byte[] buf, BERHandler handler, short end) {
-        /* parse children */
-        while(mVars[VAR_POSN] < end) {
-            parseOne(buf, handler);
-            if(mVars[VAR_POSN] > end) {
+            /* read the tag */
+            byte b = buf[(short)(off + posn++)];
+            short t = (short)(b << 8);
+            if(BERTag.byteIsLongForm(b)) {
+                if(posn >= end) {
+                    parseError();
+                }
+                b = buf[(short)(off + posn++)];
+                if(!BERTag.byteIsLast(b)) {
+                    parseError();
+                }
+                t |= (short)(b & 0xFF);
+            }
+
+            /* read the length */
+            if(posn >= end) {
                 parseError();
             }
+            b = buf[(short)(off + posn++)];
+            short l = 0;
+            boolean indefinite = false;
+            if(BERLength.isShortForm(b)) {
+                l = BERLength.shortFormLength(b);
+            } else if(BERLength.isIndefinite(b)) {
+                /* only constructed objects can be indefinite */
+                if(BERTag.isPrimitive(t)) {
+                    parseError();
+                }
+                indefinite = true;
+            } else {
+                byte bc = BERLength.longFormBytes(b);
+                if(bc > BERLength.LENGTH_MAX_BYTES || bc > (short)(end - posn)) {
+                    parseError();
+                }
+                l = BERLength.getLongForm(buf, (short)(off + posn), bc);
+                posn += bc;
+            }
+
+            /* compute and check the end offset for this tag */
+            short e;
+            if(indefinite) {
+                /* contents are limited by the enclosing level */
+                e = (short)~end;
+            } else {
+                e = (short)(posn + l);
+                if(l < 0 || e < 0 || e > end) {
+                    parseError();
+                }
+            }
+
+            /* push state */
+            mTagStk[depth] = t;
+            mOffStk[depth] = e;
+
+            /* apply the schema */
+            if(schema != null) {
+                short parent = BERSchema.TAG_TOPLEVEL;
+                if(depth > 0) {
+                    parent = mTagStk[(short)(depth - 1)];
+                }
+                if(!schema.check(parent, t, indefinite ? -1 : l)) {
+                    parseError();
+                }
+            }
+
+            /* apply the filter */
+            byte match = BERFilter.MATCH_FULL;
+            if(filter != null) {
+                match = filter.match(mTagStk, depth);
+            }
+
+            /* perform processing */
+            if(match == BERFilter.MATCH_NONE
+                    || (match == BERFilter.MATCH_PREFIX && BERTag.isPrimitive(t))) {
+                /* skip the object - primitives can not be ancestors */
+                if(indefinite) {
+                    e = skipIndefinite(buf, off, posn, end);
+                }
+            } else if(BERTag.isPrimitive(t)) {
+                /* call handler */
+                if(!handler.handlePrimitive(this, (byte)depth, t,
+                                            buf, (short)(off + posn), l)) {
+                    parseError();
+                }
+            } else {
+                /* prepare validation of children */
+                if(schema != null && !schema.enter(mTagStk, depth)) {
+                    parseError();
+                }
+                /* call begin handler */
+                if(!handler.handleBeginConstructed(this, (byte)depth, t)) {
+                    parseError();
+                }
+                /* now at next level of depth */
+                depth++;
+                /* check for maximum depth */
+                if(depth == mMaxDepth) {
+                    parseError();
+                }
+                /* children end with this object */
+                if(!indefinite) {
+                    end = e;
+                }
+                continue;
+            }
+
+            /* pop state */
+            mOffStk[depth] = 0;
+            mTagStk[depth] = 0;
+
+            /* advance position to after this tag */
+            posn = e;
         }
-        /* check final position */
-        if(mVars[VAR_POSN] != end) {
+        // check for required top-level objects
+        if(schema != null && !schema.finish(BERSchema.TAG_TOPLEVEL)) {
             parseError();
         }
+        // save final state
+        mVars[VAR_POSN] = posn;
     }
 
     /**
-     * Internal: recursively parse one BER object
-     * @param buf we are reading from
-     * @param handler to call for every element
+     * Begin parsing a stream of BER data
+     * <p/>
+     * Data is then provided using streamChunk()
+     * and the stream is completed using streamFinish().
      */
-    private void parseOne(byte[] buf, BERHandler handler) {
-        /* read the tag */
-        short t = readTag(buf);
-        /* read the length */
-        short l = readLength(buf);
-        /* compute the end offset for this tag */
-        short e = (short)(mVars[VAR_POSN] + l);
+    public final void streamBegin() {
+        mVars[VAR_BUF_OFF] = 0;
+        mVars[VAR_BUF_LEN] = 0;
+        mVars[VAR_POSN] = 0;
+        mVars[VAR_DEPTH] = 0;
+        mVars[VAR_STATE] = STATE_TAG;
+        mVars[VAR_TAG] = 0;
+        mVars[VAR_LENGTH] = 0;
+        mVars[VAR_COUNT] = 0;
+    }
 
-        /* check that we have enough data */
-        checkLength(l);
+    /**
+     * Parse a chunk of a BER data stream
+     * <p/>
+     * Chunks may be split at arbitrary positions.
+     * <p/>
+     * Values are passed to the handler in the chunk buffer
+     * if possible, so the chunk may be the APDU buffer.
+     * <p/>
+     * @param buf to parse from
+     * @param off to start at
+     * @param len of data
+     * @param handler to call with results
+     */
+    public final void streamChunk(byte[] buf, short off, short len, BERHandler handler) {
+        short cur = off;
+        short end = (short)(off + len);
+        while(cur < end) {
+            byte state = (byte)mVars[VAR_STATE];
+            /* continue collecting a straddling value */
+            if(state == STATE_VALUE) {
+                short need = mVars[VAR_COUNT];
+                short take = (short)(end - cur);
+                if(take > need) {
+                    take = need;
+                }
+                short fill = (short)(mVars[VAR_LENGTH] - need);
+                Util.arrayCopyNonAtomic(buf, cur, mValBuf, fill, take);
+                cur += take;
+                mVars[VAR_POSN] += take;
+                mVars[VAR_COUNT] = (short)(need - take);
+                if(need == take) {
+                    streamPrimitive(handler, mValBuf, (short)0);
+                }
+                continue;
+            }
+            /* consume one header byte */
+            byte b = buf[cur++];
+            streamAdvance((short)1);
+            if(state == STATE_TAG) {
+                mVars[VAR_TAG] = (short)(b << 8);
+                if(BERTag.byteIsLongForm(b)) {
+                    mVars[VAR_STATE] = STATE_TAG_LONG;
+                } else {
+                    mVars[VAR_STATE] = STATE_LENGTH;
+                }
+            } else if(state == STATE_TAG_LONG) {
+                if(!BERTag.byteIsLast(b)) {
+                    parseError();
+                }
+                mVars[VAR_TAG] |= (short)(b & 0xFF);
+                mVars[VAR_STATE] = STATE_LENGTH;
+            } else if(state == STATE_LENGTH) {
+                short depth = mVars[VAR_DEPTH];
+                if(mVars[VAR_TAG] == 0 && depth > 0 && mOffStk[(short)(depth - 1)] < 0) {
+                    /* end-of-contents of indefinite object */
+                    if(b != 0) {
+                        parseError();
+                    }
+                    streamEnd(handler);
+                } else if(BERLength.isShortForm(b)) {
+                    mVars[VAR_LENGTH] = BERLength.shortFormLength(b);
+                    cur = streamHeader(handler, buf, cur, end);
+                } else if(BERLength.isIndefinite(b)) {
+                    /* only constructed objects can be indefinite */
+                    if(BERTag.isPrimitive(mVars[VAR_TAG])) {
+                        parseError();
+                    }
+                    mVars[VAR_LENGTH] = -1;
+                    cur = streamHeader(handler, buf, cur, end);
+                } else {
+                    byte bc = BERLength.longFormBytes(b);
+                    if(bc > BERLength.LENGTH_MAX_BYTES) {
+                        parseError();
+                    }
+                    mVars[VAR_LENGTH] = 0;
+                    mVars[VAR_COUNT] = bc;
+                    mVars[VAR_STATE] = STATE_LENGTH_LONG;
+                }
+            } else {
+                /* check that the length will fit */
+                if(mVars[VAR_LENGTH] > 0x7F) {
+                    parseError();
+                }
+                mVars[VAR_LENGTH] = (short)((mVars[VAR_LENGTH] << 8) | (b & 0xFF));
+                mVars[VAR_COUNT]--;
+                if(mVars[VAR_COUNT] == 0) {
+                    cur = streamHeader(handler, buf, cur, end);
+                }
+            }
+        }
+    }
 
-        /* push state */
-        mTagStk[mVars[VAR_DEPTH]] = t;
-        mOffStk[mVars[VAR_DEPTH]] = (short)(mVars[VAR_POSN] + l);
+    /**
+     * Finish parsing a stream of BER data
+     * <p/>
+     * Fails unless all objects in the stream are complete.
+     */
+    public final void streamFinish() {
+        if(mVars[VAR_STATE] != STATE_TAG || mVars[VAR_DEPTH] != 0) {
+            parseError();
+        }
+    }
 
-        /* perform processing */
-        if(BERTag.isPrimitive(t)) {
-            /* call handler */
-            if(!handler.handlePrimitive(this, (byte)mVars[VAR_DEPTH], t,
-                                            buf, mVars[VAR_POSN], l)) {
+    /**
+     * Internal: process a completely read header in streaming mode
+     * @param handler to call for the object
+     * @param buf of the current chunk
+     * @param cur position in the chunk
+     * @param end of the chunk
+     * @return new position in the chunk
+     */
+    private short streamHeader(BERHandler handler, byte[] buf, short cur, short end) {
+        short depth = mVars[VAR_DEPTH];
+        short tag = mVars[VAR_TAG];
+        short len = mVars[VAR_LENGTH];
+        /* determine the limit of the enclosing level */
+        short limit = 0x7FFF;
+        if(depth > 0) {
+            limit = levelEnd(mOffStk[(short)(depth - 1)]);
+        }
+        /* compute and check the end offset for this tag */
+        short e;
+        if(len < 0) {
+            /* indefinite, contents are limited by the enclosing level */
+            if(mVars[VAR_POSN] > limit) {
+                parseError();
+            }
+            e = (short)~limit;
+        } else {
+            e = (short)(mVars[VAR_POSN] + len);
+            if(e < 0 || e > limit) {
                 parseError();
             }
+        }
+        if(BERTag.isPrimitive(tag)) {
+            short avail = (short)(end - cur);
+            if(len <= avail) {
+                /* value is in this chunk */
+                streamAdvance(len);
+                streamPrimitive(handler, buf, cur);
+                cur += len;
+            } else {
+                /* value straddles the chunk boundary */
+                if(mValBuf == null || len > (short)mValBuf.length) {
+                    parseError();
+                }
+                Util.arrayCopyNonAtomic(buf, cur, mValBuf, (short)0, avail);
+                streamAdvance(avail);
+                mVars[VAR_COUNT] = (short)(len - avail);
+                mVars[VAR_STATE] = STATE_VALUE;
+                cur = end;
+            }
         } else {
+            /* push state */
+            mTagStk[depth] = tag;
+            mOffStk[depth] = e;
             /* call begin handler */
-            if(!handler.handleBeginConstructed(this, (byte)mVars[VAR_DEPTH], t)) {
+            if(!handler.handleBeginConstructed(this, (byte)depth, tag)) {
                 parseError();
             }
-
             /* now at next level of depth */
-            mVars[VAR_DEPTH]++;
-
-            /* check for maximum depth */
-            if(mVars[VAR_DEPTH] == mMaxDepth) {
+            depth++;
+            if(depth == mMaxDepth) {
                 parseError();
             }
+            mVars[VAR_DEPTH] = depth;
+            mVars[VAR_STATE] = STATE_TAG;
+            /* constructed objects can be empty */
+            streamPop(handler);
+        }
+        return cur;
+    }
 
-            /* parse children */
-            parseMultiple(buf, handler, e);
-
-            /* done with this level of depth */
-            mVars[VAR_DEPTH]--;
+    /**
+     * Internal: deliver a complete primitive in streaming mode
+     * @param handler to call
+     * @param buf containing the value
+     * @param off of the value in buf
+     */
+    private void streamPrimitive(BERHandler handler, byte[] buf, short off) {
+        if(!handler.handlePrimitive(this, (byte)mVars[VAR_DEPTH], mVars[VAR_TAG],
+                                        buf, off, mVars[VAR_LENGTH])) {
+            parseError();
+        }
+        mVars[VAR_STATE] = STATE_TAG;
+        streamPop(handler);
+    }
 
+    /**
+     * Internal: finish all constructed objects ending at the current position
+     * @param handler to call
+     */
+    private void streamPop(BERHandler handler) {
+        short depth = mVars[VAR_DEPTH];
+        while(depth > 0) {
+            short parent = (short)(depth - 1);
+            if(mOffStk[parent] != mVars[VAR_POSN]) {
+                break;
+            }
+            short tag = mTagStk[parent];
+            /* pop state */
+            mOffStk[parent] = 0;
+            mTagStk[parent] = 0;
+            depth = parent;
+            mVars[VAR_DEPTH] = depth;
             /* call finish handler */
-            if(!handler.handleFinishConstructed(this, (byte)mVars[VAR_DEPTH], t)) {
+            if(!handler.handleFinishConstructed(this, (byte)depth, tag)) {
                 parseError();
             }
         }
+    }
 
+    /**
+     * Internal: finish an indefinite object at its end-of-contents
+     * @param handler to call
+     */
+    private void streamEnd(BERHandler handler) {
+        short depth = (short)(mVars[VAR_DEPTH] - 1);
+        short tag = mTagStk[depth];
+        /* check that the marker is within the enclosing limit */
+        if(mVars[VAR_POSN] > levelEnd(mOffStk[depth])) {
+            parseError();
+        }
         /* pop state */
-        mOffStk[mVars[VAR_DEPTH]] = 0;
-        mTagStk[mVars[VAR_DEPTH]] = 0;
+        mOffStk[depth] = 0;
+        mTagStk[depth] = 0;
+        mVars[VAR_DEPTH] = depth;
+        mVars[VAR_STATE] = STATE_TAG;
+        /* call finish handler */
+        if(!handler.handleFinishConstructed(this, (byte)depth, tag)) {
+            parseError();
+        }
+        /* enclosing objects may end here */
+        streamPop(handler);
+    }
 
-        /* advance position to after this tag */
-        mVars[VAR_POSN] = e;
+    /**
+     * Internal: advance the stream position
+     * @param count of bytes consumed
+     */
+    private void streamAdvance(short count) {
+        short newPosn = (short)(mVars[VAR_POSN] + count);
+        if(newPosn < 0) {
+            parseError();
+        }
+        mVars[VAR_POSN] = newPosn;
     }
 
     /**
-     * Internal: throw a parse error
-     *
-     * We always throw SW=[data invalid].
+     * Build an offset index for a block of BER data
+     * <p/>
+     * The data is parsed in one pass using the cursor,
+     * so the cursor state is lost when this returns.
+     * <p/>
+     * @param buf to parse from
+     * @param off to start at
+     * @param len of data
+     * @param index to fill
      */
-    private void parseError() {
-        ISOException.throwIt(ISO7816.SW_DATA_INVALID);
+    public final void index(byte[] buf, short off, short len, BERIndex index) {
+        index.reset();
+        cursorBegin(off, len);
+        while(true) {
+            if(cursorNext(buf)) {
+                short tag = mVars[VAR_TAG];
+                index.add(tag, (byte)mVars[VAR_DEPTH], cursorOffset(), mVars[VAR_LENGTH]);
+                if(BERTag.isConstructed(tag)) {
+                    cursorEnter();
+                }
+            } else {
+                if(mVars[VAR_DEPTH] == 0) {
+                    break;
+                }
+                cursorLeave();
+            }
+        }
     }
 
     /**
-     * Internal: check number of available bytes
-     * @param length required in bytes
+     * Begin iterating over a block of BER data
+     * <p/>
+     * The cursor starts before the first top-level object.
+     * <p/>
+     * @param off of data
+     * @param len of data
      */
-    private void checkLength(short length) {
-        short newCur = (short)(mVars[VAR_POSN] + length);
-        if(newCur < 0 || newCur > mVars[VAR_BUF_LEN]) {
+    public final void cursorBegin(short off, short len) {
+        mVars[VAR_BUF_OFF] = off;
+        mVars[VAR_BUF_LEN] = len;
+        mVars[VAR_POSN] = 0;
+        mVars[VAR_DEPTH] = 0;
+        mVars[VAR_STATE] = STATE_TAG;
+        mVars[VAR_TAG] = 0;
+        mVars[VAR_LENGTH] = 0;
+        mVars[VAR_COUNT] = 0;
+        mVars[VAR_VALUE] = 0;
+    }
+
+    /**
+     * Move the cursor to the next object on the current level
+     * <p/>
+     * The contents of the current object are skipped without parsing.
+     * <p/>
+     * @param buf we are reading from
+     * @return true if positioned on an object, false at end of level
+     */
+    public final boolean cursorNext(byte[] buf) {
+        /* skip the current object */
+        if(mVars[VAR_STATE] == STATE_CURSOR) {
+            mVars[VAR_POSN] = (short)(mVars[VAR_VALUE] + mVars[VAR_LENGTH] + mVars[VAR_COUNT]);
+            mVars[VAR_STATE] = STATE_TAG;
+        }
+        /* check for end of level */
+        short end = cursorLevelEnd();
+        if(mVars[VAR_POSN] == end) {
+            return false;
+        }
+        /* read the header */
+        short t = readTag(buf);
+        short l = readLength(buf);
+        short trailer = 0;
+        if(l < 0) {
+            /* indefinite, find the end-of-contents */
+            if(BERTag.isPrimitive(t)) {
+                parseError();
+            }
+            short posn = mVars[VAR_POSN];
+            short after = skipIndefinite(buf, mVars[VAR_BUF_OFF], posn, end);
+            trailer = 2;
+            l = (short)(after - trailer - posn);
+        }
+        /* check that the value fits the level */
+        short e = (short)(mVars[VAR_POSN] + l);
+        if(e < 0 || e > end) {
+            parseError();
+        }
+        /* remember the object */
+        mVars[VAR_TAG] = t;
+        mVars[VAR_LENGTH] = l;
+        mVars[VAR_COUNT] = trailer;
+        mVars[VAR_VALUE] = mVars[VAR_POSN];
+        mVars[VAR_STATE] = STATE_CURSOR;
+        return true;
+    }
+
+    /**
+     * Move the cursor to the next object with the given tag on the current level
+     * @param buf we are reading from
+     * @param tag to look for
+     * @return true if found, false at end of level
+     */
+    public final boolean cursorFind(byte[] buf, short tag) {
+        while(cursorNext(buf)) {
+            if(mVars[VAR_TAG] == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Enter the current constructed object
+     * <p/>
+     * The cursor is then positioned before its first child.
+     */
+    public final void cursorEnter() {
+        short depth = mVars[VAR_DEPTH];
+        short tag = mVars[VAR_TAG];
+        /* check that we are on a constructed object */
+        if(mVars[VAR_STATE] != STATE_CURSOR || BERTag.isPrimitive(tag)) {
+            parseError();
+        }
+        /* check for maximum depth */
+        if((short)(depth + 1) >= mMaxDepth) {
+            parseError();
+        }
+        /* push state, complemented if followed by end-of-contents */
+        short e = (short)(mVars[VAR_VALUE] + mVars[VAR_LENGTH]);
+        if(mVars[VAR_COUNT] != 0) {
+            e = (short)~e;
+        }
+        mTagStk[depth] = tag;
+        mOffStk[depth] = e;
+        mVars[VAR_DEPTH] = (short)(depth + 1);
+        /* position before first child */
+        mVars[VAR_POSN] = mVars[VAR_VALUE];
+        mVars[VAR_STATE] = STATE_TAG;
+    }
+
+    /**
+     * Leave the current constructed object
+     * <p/>
+     * The cursor is then positioned after the object,
+     * so that cursorNext() will move to its next sibling.
+     */
+    public final void cursorLeave() {
+        short depth = (short)(mVars[VAR_DEPTH] - 1);
+        if(depth < 0) {
             parseError();
         }
+        /* pop state, skipping any end-of-contents */
+        short e = mOffStk[depth];
+        if(e < 0) {
+            e = (short)(~e + 2);
+        }
+        mVars[VAR_POSN] = e;
+        mOffStk[depth] = 0;
+        mTagStk[depth] = 0;
+        mVars[VAR_DEPTH] = depth;
+        mVars[VAR_STATE] = STATE_TAG;
+    }
+
+    /** @return depth of the cursor */
+    public final byte cursorDepth() {
+        return (byte)mVars[VAR_DEPTH];
+    }
+
+    /** @return tag of the current object */
+    public final short cursorTag() {
+        cursorCheck();
+        return mVars[VAR_TAG];
+    }
+
+    /** @return offset of the value of the current object in the buffer */
+    public final short cursorOffset() {
+        cursorCheck();
+        return (short)(mVars[VAR_BUF_OFF] + mVars[VAR_VALUE]);
+    }
+
+    /** @return length of the value of the current object */
+    public final short cursorLength() {
+        cursorCheck();
+        return mVars[VAR_LENGTH];
+    }
+
+    /**
+     * Internal: check that the cursor is on an object
+     */
+    private void cursorCheck() {
+        if(mVars[VAR_STATE] != STATE_CURSOR) {
+            parseError();
+        }
+    }
+
+    /**
+     * Internal: determine end position of the current cursor level
+     * @return end position
+     */
+    private short cursorLevelEnd() {
+        short depth = mVars[VAR_DEPTH];
+        if(depth == 0) {
+            return mVars[VAR_BUF_LEN];
+        } else {
+            return levelEnd(mOffStk[(short)(depth - 1)]);
+        }
+    }
+
+    /**
+     * Internal: decode an entry of the offset stack
+     * <p/>
+     * Indefinite levels are stored as the complement of their limit.
+     * <p/>
+     * @param off entry from the offset stack
+     * @return end or limit of the level
+     */
+    private static short levelEnd(short off) {
+        if(off < 0) {
+            return (short)~off;
+        }
+        return off;
+    }
+
+    /**
+     * Internal: skip the contents of an indefinite object
+     * <p/>
+     * Definite objects are skipped using their length, so
+     * only indefinite nesting needs to be counted.
+     * <p/>
+     * @param buf we are reading from
+     * @param off of data in buf
+     * @param posn of the contents
+     * @param end limit for the contents
+     * @return position after the end-of-contents
+     */
+    private short skipIndefinite(byte[] buf, short off, short posn, short end) {
+        short nesting = 1;
+        while(nesting > 0) {
+            /* every object and marker has at least two bytes */
+            if((short)(end - posn) < 2) {
+                parseError();
+            }
+            byte b = buf[(short)(off + posn++)];
+            /* end-of-contents */
+            if(b == 0) {
+                if(buf[(short)(off + posn++)] != 0) {
+                    parseError();
+                }
+                nesting--;
+                continue;
+            }
+            /* tag */
+            boolean constructed = BERTag.isConstructed((short)(b << 8));
+            if(BERTag.byteIsLongForm(b)) {
+                b = buf[(short)(off + posn++)];
+                if(!BERTag.byteIsLast(b) || posn == end) {
+                    parseError();
+                }
+            }
+            /* length */
+            b = buf[(short)(off + posn++)];
+            short l;
+            if(BERLength.isShortForm(b)) {
+                l = BERLength.shortFormLength(b);
+            } else if(BERLength.isIndefinite(b)) {
+                if(!constructed) {
+                    parseError();
+                }
+                nesting++;
+                continue;
+            } else {
+                byte bc = BERLength.longFormBytes(b);
+                if(bc > BERLength.LENGTH_MAX_BYTES || bc > (short)(end - posn)) {
+                    parseError();
+                }
+                l = BERLength.getLongForm(buf, (short)(off + posn), bc);
+                posn += bc;
+            }
+            /* value */
+            if(l < 0 || l > (short)(end - posn)) {
+                parseError();
+            }
+            posn += l;
+        }
+        return posn;
+    }
+
+    /**
+     * Internal: throw a parse error
+     *
+     * We always throw SW=[data invalid].
+     */
+    private void parseError() {
+        ISOException.throwIt(ISO7816.SW_DATA_INVALID);
     }
 
     /**
@@ -233,7 +962,7 @@ public final class BERReader implements BERSource {
     /**
      * Internal: read TLV length at current position
      * @param buf that we are reading from
-     * @return the length
+     * @return the length, or -1 for indefinite length
      */
     private short readLength(byte[] buf) {
         short result = -1;
@@ -248,18 +977,18 @@ public final class BERReader implements BERSource {
         } else {
             // process long form
             byte bc = BERLength.longFormBytes(b0);
-            if (bc == 1) {
-                // read the length and cast it
-                result = (short) readByte(buf);
-            } else if (bc == 2) {
-                // read the length
-                byte b1 = readByte(buf);
-                byte b2 = readByte(buf);
-                // combine and cast
-                result = (short) ((b1 << 8) | (b2));
-            } else {
+            if(bc == 0) {
+                // indefinite form, indicated to caller
+                return -1;
+            }
+            // check the number of length bytes
+            short posn = mVars[VAR_POSN];
+            if(bc > BERLength.LENGTH_MAX_BYTES || bc > (short)(mVars[VAR_BUF_LEN] - posn)) {
                 parseError();
             }
+            // decode the length
+            result = BERLength.getLongForm(buf, (short)(mVars[VAR_BUF_OFF] + posn), bc);
+            mVars[VAR_POSN] = (short)(posn + bc);
         }
 
         // check for overflow
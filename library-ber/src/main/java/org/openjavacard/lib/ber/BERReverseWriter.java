@@ -0,0 +1,237 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Back-to-front writer for DER data
+ * <p/>
+ * This writer produces its output backwards, starting at the end
+ * of the output buffer. Objects must therefore be written in reverse
+ * order, children before their parent. Because the value of every
+ * object is complete when its header is written, lengths are always
+ * known and output is produced in a single pass.
+ * <p/>
+ * No per-tag state is kept. To write a constructed object the caller
+ * takes a mark before writing its children and passes it when writing
+ * the header. Memory use is therefore constant regardless of the
+ * number and nesting of objects.
+ * <p/>
+ * Lengths are encoded in minimal form as required by DER.
+ * <p/>
+ * As with the BERReader, the buffer is passed on every call so
+ * that output can be written directly into the APDU buffer.
+ * <p/>
+ * Example for writing 30 { 04 { value } }:
+ * <pre>
+ *     writer.begin(off, len);
+ *     short mark = writer.mark();
+ *     writer.primitive(buf, BERTag.TYPE_OCTETSTRING, value, valueOff, valueLen);
+ *     writer.constructed(buf, BERTag.TYPE_SEQUENCE, mark);
+ *     short start = writer.getOffset();
+ * </pre>
+ */
+public final class BERReverseWriter {
+
+    /** Transient: state variables */
+    private final short[] mVars;
+    /** Number of transient variables */
+    private static final byte NUM_VAR = 3;
+    /** Variable: lower bound of the output region */
+    private static final byte VAR_START = 0;
+    /** Variable: upper bound of the output region */
+    private static final byte VAR_END   = 1;
+    /** Variable: start of data written so far */
+    private static final byte VAR_POSN  = 2;
+
+    /**
+     * Construct a transient-state reverse writer
+     * @param clearOn for transient state
+     */
+    public BERReverseWriter(byte clearOn) {
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
+    }
+
+    /**
+     * Begin writing into the given region
+     * @param off of the output region
+     * @param len of the output region
+     */
+    public void begin(short off, short len) {
+        short end = (short)(off + len);
+        if(off < 0 || len < 0 || end < 0) {
+            error();
+        }
+        mVars[VAR_START] = off;
+        mVars[VAR_END] = end;
+        mVars[VAR_POSN] = end;
+    }
+
+    /** @return current position, to be used as a mark for constructed objects */
+    public short mark() {
+        return mVars[VAR_POSN];
+    }
+
+    /** @return offset of the data written so far */
+    public short getOffset() {
+        return mVars[VAR_POSN];
+    }
+
+    /** @return length of the data written so far */
+    public short getLength() {
+        return (short)(mVars[VAR_END] - mVars[VAR_POSN]);
+    }
+
+    /** @return remaining space */
+    public short getSpace() {
+        return (short)(mVars[VAR_POSN] - mVars[VAR_START]);
+    }
+
+    /**
+     * Write a primitive object
+     * @param buf to write into
+     * @param tag of the object
+     * @param valBuf containing the value
+     * @param valOff of the value
+     * @param valLen of the value
+     */
+    public void primitive(byte[] buf, short tag, byte[] valBuf, short valOff, short valLen) {
+        short posn = reserve(valLen);
+        Util.arrayCopyNonAtomic(valBuf, valOff, buf, posn, valLen);
+        header(buf, tag, valLen);
+    }
+
+    /**
+     * Write a primitive object with a byte value
+     * @param buf to write into
+     * @param tag of the object
+     * @param value of the object
+     */
+    public void primitiveByte(byte[] buf, short tag, byte value) {
+        short posn = reserve((short)1);
+        buf[posn] = value;
+        header(buf, tag, (short)1);
+    }
+
+    /**
+     * Write a primitive object with a short value
+     * @param buf to write into
+     * @param tag of the object
+     * @param value of the object
+     */
+    public void primitiveShort(byte[] buf, short tag, short value) {
+        short posn = reserve((short)2);
+        Util.setShort(buf, posn, value);
+        header(buf, tag, (short)2);
+    }
+
+    /**
+     * Write pre-encoded BER data
+     * @param buf to write into
+     * @param encBuf containing the data
+     * @param encOff of the data
+     * @param encLen of the data
+     */
+    public void encoded(byte[] buf, byte[] encBuf, short encOff, short encLen) {
+        short posn = reserve(encLen);
+        Util.arrayCopyNonAtomic(encBuf, encOff, buf, posn, encLen);
+    }
+
+    /**
+     * Write the header of a constructed object
+     * <p/>
+     * The children must have been written since taking the mark.
+     * <p/>
+     * @param buf to write into
+     * @param tag of the object
+     * @param mark taken before writing the children
+     */
+    public void constructed(byte[] buf, short tag, short mark) {
+        short posn = mVars[VAR_POSN];
+        if(mark < posn || mark > mVars[VAR_END]) {
+            error();
+        }
+        header(buf, BERTag.tagAsConstructed(tag), (short)(mark - posn));
+    }
+
+    /**
+     * Move the output to the given offset
+     * @param buf containing the output
+     * @param off to move to
+     * @return length of the output
+     */
+    public short finish(byte[] buf, short off) {
+        short len = getLength();
+        Util.arrayCopyNonAtomic(buf, mVars[VAR_POSN], buf, off, len);
+        return len;
+    }
+
+    /**
+     * Internal: write a header in front of the current data
+     * @param buf to write into
+     * @param tag of the object
+     * @param len of the value
+     */
+    private void header(byte[] buf, short tag, short len) {
+        short posn;
+        // length in minimal form
+        if(len <= 127) {
+            posn = reserve((short)1);
+            buf[posn] = (byte)len;
+        } else if(len <= 255) {
+            posn = reserve((short)2);
+            buf[posn] = (byte)0x81;
+            buf[(short)(posn + 1)] = (byte)len;
+        } else {
+            posn = reserve((short)3);
+            buf[posn] = (byte)0x82;
+            Util.setShort(buf, (short)(posn + 1), len);
+        }
+        // tag in front of it
+        posn = reserve(BERTag.tagSize(tag));
+        BERTag.putTag(buf, posn, tag);
+    }
+
+    /**
+     * Internal: reserve space in front of the current data
+     * @param count of bytes to reserve
+     * @return offset of reserved space
+     */
+    private short reserve(short count) {
+        short posn = (short)(mVars[VAR_POSN] - count);
+        if(count < 0 || posn < mVars[VAR_START]) {
+            error();
+        }
+        mVars[VAR_POSN] = posn;
+        return posn;
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
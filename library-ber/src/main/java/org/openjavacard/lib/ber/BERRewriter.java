@@ -0,0 +1,280 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Rule-based rewriting stage for BER-TLV event streams
+ * <p/>
+ * This handler sits between a BERReader and another handler, usually
+ * a BERWriter, and rewrites the stream of events in a single pass.
+ * Stages can be chained since the downstream may be another rewriter.
+ * <p/>
+ * Rules are held in a compact byte array of fixed-size records:
+ * one operation byte, a 2-byte tag and a 2-byte argument. Tags are
+ * given in the 2-byte form used throughout this library (6F00, BF0C).
+ * The first rule matching a tag is applied. Available operations:
+ * <ul>
+ *     <li>RULE_DROP: drop objects with the tag, including their contents</li>
+ *     <li>RULE_DROP_CLASS: drop objects of the tag class given as tag (e.g. CLASS_PRIVATE)</li>
+ *     <li>RULE_RETAG: replace the tag by the argument, which must be of the same form</li>
+ *     <li>RULE_WRAP: wrap objects with the tag in a constructed object with the argument as tag, which must be constructed</li>
+ * </ul>
+ * <p/>
+ * Depths passed downstream account for objects added by wrapping.
+ * <p/>
+ * Rewriting state is transient. If a previous pass was aborted
+ * then reset() must be called before the next one.
+ * <p/>
+ */
+public final class BERRewriter implements BERHandler {
+
+    /** Rule: drop objects with the given tag */
+    public static final byte RULE_DROP = 1;
+    /** Rule: drop objects of the given tag class */
+    public static final byte RULE_DROP_CLASS = 2;
+    /** Rule: replace the given tag */
+    public static final byte RULE_RETAG = 3;
+    /** Rule: wrap objects with the given tag */
+    public static final byte RULE_WRAP = 4;
+
+    /** Size of a rule record */
+    public static final byte RULE_SIZE = 5;
+
+    /** Offset of the operation in a rule record */
+    private static final byte RULE_OFF_OP = 0;
+    /** Offset of the tag in a rule record */
+    private static final byte RULE_OFF_TAG = 1;
+    /** Offset of the argument in a rule record */
+    private static final byte RULE_OFF_ARG = 3;
+
+    /** Fixed: rule records */
+    private final byte[] mRules;
+    /** Fixed: downstream handler */
+    private final BERHandler mHandler;
+
+    /** Transient: state variables */
+    private final short[] mVars;
+    /** Number of transient variables */
+    private static final byte NUM_VAR = 2;
+    /** Variable: depth of dropped object plus one, zero if not dropping */
+    private static final byte VAR_DROP  = 0;
+    /** Variable: number of wrapping objects currently open */
+    private static final byte VAR_SHIFT = 1;
+
+    /**
+     * Construct a rewriter
+     * @param rules to apply, referenced
+     * @param handler to forward to
+     * @param clearOn for transient state
+     */
+    public BERRewriter(byte[] rules, BERHandler handler, byte clearOn) {
+        short len = (short)rules.length;
+        // validate the rules
+        if((short)(len % RULE_SIZE) != 0) {
+            error();
+        }
+        for(short off = 0; off < len; off += RULE_SIZE) {
+            byte op = rules[(short)(off + RULE_OFF_OP)];
+            if(op < RULE_DROP || op > RULE_WRAP) {
+                error();
+            }
+            // retagging must not change the encoding of the object
+            if(op == RULE_RETAG
+                    && BERTag.isConstructed(Util.getShort(rules, (short)(off + RULE_OFF_TAG)))
+                        != BERTag.isConstructed(Util.getShort(rules, (short)(off + RULE_OFF_ARG)))) {
+                error();
+            }
+            // wrapping requires a constructed tag
+            if(op == RULE_WRAP
+                    && !BERTag.isConstructed(Util.getShort(rules, (short)(off + RULE_OFF_ARG)))) {
+                error();
+            }
+        }
+        mRules = rules;
+        mHandler = handler;
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
+    }
+
+    /**
+     * Reset rewriting state
+     */
+    public void reset() {
+        mVars[VAR_DROP] = 0;
+        mVars[VAR_SHIFT] = 0;
+    }
+
+    /**
+     * Handler implementation: rewrite a primitive object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag that occurred
+     * @param dataBuf containing tag data
+     * @param dataOff of data in dataBuf
+     * @param dataLen of data in dataBuf
+     * @return false if rejected downstream
+     */
+    public boolean handlePrimitive(BERSource source, byte depth, short tag,
+                                   byte[] dataBuf, short dataOff, short dataLen) {
+        // skip contents of dropped objects
+        if(mVars[VAR_DROP] != 0) {
+            return true;
+        }
+        // find the rule
+        short rule = findRule(tag);
+        byte op = ruleOp(rule);
+        if(op == RULE_DROP || op == RULE_DROP_CLASS) {
+            return true;
+        }
+        byte d = (byte)(depth + mVars[VAR_SHIFT]);
+        if(op == RULE_RETAG) {
+            tag = ruleArg(rule);
+        }
+        // forward, wrapped if required
+        if(op == RULE_WRAP) {
+            short wrap = ruleArg(rule);
+            return mHandler.handleBeginConstructed(source, d, wrap)
+                    && mHandler.handlePrimitive(source, (byte)(d + 1), tag, dataBuf, dataOff, dataLen)
+                    && mHandler.handleFinishConstructed(source, d, wrap);
+        }
+        return mHandler.handlePrimitive(source, d, tag, dataBuf, dataOff, dataLen);
+    }
+
+    /**
+     * Handler implementation: rewrite start of a constructed object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag that occurred
+     * @return false if rejected downstream
+     */
+    public boolean handleBeginConstructed(BERSource source, byte depth, short tag) {
+        // skip contents of dropped objects
+        if(mVars[VAR_DROP] != 0) {
+            return true;
+        }
+        // find the rule
+        short rule = findRule(tag);
+        byte op = ruleOp(rule);
+        if(op == RULE_DROP || op == RULE_DROP_CLASS) {
+            mVars[VAR_DROP] = (short)(depth + 1);
+            return true;
+        }
+        byte d = (byte)(depth + mVars[VAR_SHIFT]);
+        if(op == RULE_RETAG) {
+            tag = ruleArg(rule);
+        }
+        // open the wrapper if required
+        if(op == RULE_WRAP) {
+            if(!mHandler.handleBeginConstructed(source, d, ruleArg(rule))) {
+                return false;
+            }
+            mVars[VAR_SHIFT]++;
+            d++;
+        }
+        return mHandler.handleBeginConstructed(source, d, tag);
+    }
+
+    /**
+     * Handler implementation: rewrite end of a constructed object
+     * @param source feeding the tag
+     * @param depth of occurrence
+     * @param tag that occurred
+     * @return false if rejected downstream
+     */
+    public boolean handleFinishConstructed(BERSource source, byte depth, short tag) {
+        // end of a dropped object
+        if(mVars[VAR_DROP] != 0) {
+            if(mVars[VAR_DROP] == (short)(depth + 1)) {
+                mVars[VAR_DROP] = 0;
+            }
+            return true;
+        }
+        // find the rule
+        short rule = findRule(tag);
+        byte op = ruleOp(rule);
+        byte d = (byte)(depth + mVars[VAR_SHIFT]);
+        if(op == RULE_RETAG) {
+            tag = ruleArg(rule);
+        }
+        if(!mHandler.handleFinishConstructed(source, d, tag)) {
+            return false;
+        }
+        // close the wrapper if required
+        if(op == RULE_WRAP) {
+            mVars[VAR_SHIFT]--;
+            return mHandler.handleFinishConstructed(source, (byte)(d - 1), ruleArg(rule));
+        }
+        return true;
+    }
+
+    /**
+     * Internal: find the first rule matching a tag
+     * @param tag to match
+     * @return offset of the rule, -1 if none
+     */
+    private short findRule(short tag) {
+        byte[] rules = mRules;
+        short len = (short)rules.length;
+        for(short off = 0; off < len; off += RULE_SIZE) {
+            short ruleTag = Util.getShort(rules, (short)(off + RULE_OFF_TAG));
+            if(rules[off] == RULE_DROP_CLASS) {
+                if(BERTag.tagClass(tag) == ruleTag) {
+                    return off;
+                }
+            } else if(ruleTag == tag) {
+                return off;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Internal: get the operation of a rule
+     * @param rule offset, may be -1
+     * @return operation, 0 if no rule
+     */
+    private byte ruleOp(short rule) {
+        if(rule < 0) {
+            return 0;
+        }
+        return mRules[(short)(rule + RULE_OFF_OP)];
+    }
+
+    /**
+     * Internal: get the argument of a rule
+     * @param rule offset
+     * @return argument
+     */
+    private short ruleArg(short rule) {
+        return Util.getShort(mRules, (short)(rule + RULE_OFF_ARG));
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Compiled schema for validating BER-TLV data
+ * <p/>
+ * A schema is a table of rules, each allowing one tag inside one parent,
+ * with bounds for the number of occurrences and for the value length.
+ * When given to the BERReader the schema is enforced during parsing and
+ * malformed data is rejected before the handler sees any of its contents
+ * past the offending object.
+ * <p/>
+ * Each rule consists of 10 bytes: parent tag (2), tag (2), minimum and
+ * maximum occurrences (1 each) and minimum and maximum length (2 each).
+ * Tags are given as 2-byte shorts like everywhere in this library, so
+ * 6F is written as 6F 00. The parent tag TAG_TOPLEVEL (00 00) is used
+ * for top-level objects.
+ * <p/>
+ * Parents that have rules only accept tags that have rules.
+ * Parents without rules accept any contents. Lengths of
+ * indefinite-length objects are not checked.
+ * <p/>
+ * Occurrences are counted per rule in a transient array. A parent with
+ * rules may therefore not be nested within itself.
+ * <p/>
+ * The rule array is referenced, not copied, and should be persistent.
+ * <p/>
+ */
+public final class BERSchema {
+
+    /** Parent tag used for top-level rules */
+    public static final short TAG_TOPLEVEL = 0;
+
+    /** Size of a rule */
+    public static final byte RULE_SIZE = 10;
+    /** Rule field: parent tag */
+    private static final byte RULE_PARENT = 0;
+    /** Rule field: tag */
+    private static final byte RULE_TAG = 2;
+    /** Rule field: minimum occurrences */
+    private static final byte RULE_MIN_COUNT = 4;
+    /** Rule field: maximum occurrences */
+    private static final byte RULE_MAX_COUNT = 5;
+    /** Rule field: minimum length */
+    private static final byte RULE_MIN_LENGTH = 6;
+    /** Rule field: maximum length */
+    private static final byte RULE_MAX_LENGTH = 8;
+
+    /** Compiled rules */
+    private final byte[] mRules;
+    /** Number of rules */
+    private final short mCount;
+    /** Transient: occurrence counters, one per rule */
+    private final byte[] mCounts;
+
+    /**
+     * Construct a schema
+     * @param rules specification of rules
+     * @param clearOn for transient counters
+     */
+    public BERSchema(byte[] rules, byte clearOn) {
+        short len = (short)rules.length;
+        // validate the specification
+        if((short)(len % RULE_SIZE) != 0) {
+            error();
+        }
+        short count = (short)(len / RULE_SIZE);
+        for(short off = 0; off < len; off += RULE_SIZE) {
+            byte minCount = rules[(short)(off + RULE_MIN_COUNT)];
+            byte maxCount = rules[(short)(off + RULE_MAX_COUNT)];
+            short minLength = Util.getShort(rules, (short)(off + RULE_MIN_LENGTH));
+            short maxLength = Util.getShort(rules, (short)(off + RULE_MAX_LENGTH));
+            if(minCount < 0 || maxCount <= 0 || minCount > maxCount
+                    || minLength < 0 || minLength > maxLength) {
+                error();
+            }
+        }
+        mRules = rules;
+        mCount = count;
+        mCounts = JCSystem.makeTransientByteArray(count, clearOn);
+    }
+
+    /**
+     * Reset all occurrence counters
+     * <p/>
+     * Called by the reader when starting to parse.
+     */
+    void reset() {
+        Util.arrayFillNonAtomic(mCounts, (short)0, mCount, (byte)0);
+    }
+
+    /**
+     * Check an object against the schema
+     * <p/>
+     * Counts the occurrence of the object.
+     * <p/>
+     * @param parent tag of the parent or TAG_TOPLEVEL
+     * @param tag of the object
+     * @param length of the value, negative if indefinite
+     * @return true if the object is acceptable
+     */
+    boolean check(short parent, short tag, short length) {
+        boolean constrained = false;
+        for(short i = 0; i < mCount; i++) {
+            short off = (short)(i * RULE_SIZE);
+            if(Util.getShort(mRules, (short)(off + RULE_PARENT)) != parent) {
+                continue;
+            }
+            constrained = true;
+            if(Util.getShort(mRules, (short)(off + RULE_TAG)) != tag) {
+                continue;
+            }
+            // check the length
+            if(length >= 0
+                    && (length < Util.getShort(mRules, (short)(off + RULE_MIN_LENGTH))
+                        || length > Util.getShort(mRules, (short)(off + RULE_MAX_LENGTH)))) {
+                return false;
+            }
+            // check and count the occurrence, never past the maximum
+            byte count = mCounts[i];
+            if(count >= mRules[(short)(off + RULE_MAX_COUNT)]) {
+                return false;
+            }
+            mCounts[i] = (byte)(count + 1);
+            return true;
+        }
+        return !constrained;
+    }
+
+    /**
+     * Enter a constructed object
+     * <p/>
+     * Resets the occurrence counters for its children.
+     * <p/>
+     * @param tags containing the path from the root
+     * @param depth of the object in the path
+     * @return true if the object can be entered
+     */
+    boolean enter(short[] tags, short depth) {
+        short tag = tags[depth];
+        boolean constrained = false;
+        for(short i = 0; i < mCount; i++) {
+            if(Util.getShort(mRules, (short)(i * RULE_SIZE + RULE_PARENT)) == tag) {
+                constrained = true;
+                mCounts[i] = 0;
+            }
+        }
+        // counters can not be shared by nested instances
+        if(constrained) {
+            for(short d = 0; d < depth; d++) {
+                if(tags[d] == tag) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finish a constructed object or the top level
+     * <p/>
+     * Checks that all required children have occurred.
+     * <p/>
+     * @param parent tag of the object or TAG_TOPLEVEL
+     * @return true if the contents are complete
+     */
+    boolean finish(short parent) {
+        for(short i = 0; i < mCount; i++) {
+            short off = (short)(i * RULE_SIZE);
+            if(Util.getShort(mRules, (short)(off + RULE_PARENT)) == parent
+                    && mCounts[i] < mRules[(short)(off + RULE_MIN_COUNT)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -130,7 +130,7 @@ public final class BERTag {
 
     /** Coerce a tag to be constructed */
     public static short tagAsConstructed(short tag) {
-        return (short)(tag & CONSTRUCTED_FLAG);
+        return (short)(tag | CONSTRUCTED_FLAG);
     }
 
     /** Coerce a tag to be of the given class */
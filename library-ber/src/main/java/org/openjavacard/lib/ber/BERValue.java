@@ -0,0 +1,177 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.Util;
+
+/**
+ * Functions for decoding values of universal BER types
+ * <p/>
+ * All functions operate on values in place, as delivered to a BERHandler.
+ * Malformed values result in SW_DATA_INVALID. Encoding of these types
+ * is provided by BERWriter.
+ * <p/>
+ * @see org.openjavacard.lib.ber.BERWriter
+ */
+public final class BERValue {
+
+    /** DER encoding of BOOLEAN true */
+    public static final byte BOOLEAN_TRUE  = (byte)0xFF;
+    /** DER encoding of BOOLEAN false */
+    public static final byte BOOLEAN_FALSE = (byte)0x00;
+
+    /** Maximum number of unused bits in a BIT STRING */
+    public static final byte BITSTRING_MAX_UNUSED = 7;
+
+    /** @return value of a DER BOOLEAN */
+    public static boolean getBoolean(byte[] buf, short off, short len) {
+        if(len != 1) {
+            error();
+        }
+        byte b = buf[off];
+        if(b == BOOLEAN_TRUE) {
+            return true;
+        }
+        if(b != BOOLEAN_FALSE) {
+            error();
+        }
+        return false;
+    }
+
+    /** @return offset of the minimal encoding within a two's complement INTEGER */
+    public static short integerStart(byte[] buf, short off, short len) {
+        if(len <= 0) {
+            error();
+        }
+        short end = (short)(off + len - 1);
+        while(off < end) {
+            byte b = buf[off];
+            byte n = buf[(short)(off + 1)];
+            if((b == 0 && n >= 0) || (b == (byte)0xFF && n < 0)) {
+                off++;
+            } else {
+                break;
+            }
+        }
+        return off;
+    }
+
+    /** @return true if an INTEGER is minimally encoded (as required by DER) */
+    public static boolean integerIsMinimal(byte[] buf, short off, short len) {
+        return integerStart(buf, off, len) == off;
+    }
+
+    /** @return true if an INTEGER is negative */
+    public static boolean integerIsNegative(byte[] buf, short off, short len) {
+        if(len <= 0) {
+            error();
+        }
+        return buf[off] < 0;
+    }
+
+    /** @return value of an INTEGER that fits a short */
+    public static short getShortInteger(byte[] buf, short off, short len) {
+        short start = integerStart(buf, off, len);
+        short size = (short)(off + len - start);
+        if(size == 1) {
+            return buf[start];
+        }
+        if(size != 2) {
+            error();
+        }
+        return Util.getShort(buf, start);
+    }
+
+    /** @return offset of the first significant byte of an unsigned magnitude */
+    public static short unsignedStart(byte[] buf, short off, short len) {
+        if(len <= 0) {
+            error();
+        }
+        short end = (short)(off + len - 1);
+        while(off < end && buf[off] == 0) {
+            off++;
+        }
+        return off;
+    }
+
+    /** @return number of unused bits in a BIT STRING */
+    public static byte bitStringUnused(byte[] buf, short off, short len) {
+        if(len <= 0) {
+            error();
+        }
+        byte unused = buf[off];
+        // empty bit strings can not have unused bits
+        if(unused < 0 || unused > BITSTRING_MAX_UNUSED || (len == 1 && unused != 0)) {
+            error();
+        }
+        return unused;
+    }
+
+    /** @return true if bit number index (0 is the first bit) is set in a BIT STRING */
+    public static boolean bitStringGet(byte[] buf, short off, short len, short index) {
+        short bits = (short)(((short)(len - 1) << 3) - bitStringUnused(buf, off, len));
+        if(index < 0 || index >= bits) {
+            return false;
+        }
+        byte b = buf[(short)(off + 1 + (index >> 3))];
+        return (b & (0x80 >> (index & 7))) != 0;
+    }
+
+    /** @return true if an OBJECT IDENTIFIER is well-formed */
+    public static boolean oidIsValid(byte[] buf, short off, short len) {
+        if(len <= 0) {
+            return false;
+        }
+        short end = (short)(off + len);
+        boolean first = true;
+        for(short i = off; i < end; i++) {
+            byte b = buf[i];
+            // subidentifiers must not have leading zero groups
+            if(first && b == (byte)0x80) {
+                return false;
+            }
+            first = (b & 0x80) == 0;
+        }
+        // last subidentifier must be terminated
+        return first;
+    }
+
+    /** @return true if an OBJECT IDENTIFIER equals the given encoded constant */
+    public static boolean oidEquals(byte[] buf, short off, short len,
+                                    byte[] oidBuf, short oidOff, short oidLen) {
+        return len == oidLen
+                && Util.arrayCompare(buf, off, oidBuf, oidOff, oidLen) == 0;
+    }
+
+    /** @return true if an OBJECT IDENTIFIER is below the given encoded constant */
+    public static boolean oidStartsWith(byte[] buf, short off, short len,
+                                        byte[] oidBuf, short oidOff, short oidLen) {
+        return len >= oidLen
+                && Util.arrayCompare(buf, off, oidBuf, oidOff, oidLen) == 0;
+    }
+
+    /** Internal: throw an error for malformed values */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_DATA_INVALID);
+    }
+
+}
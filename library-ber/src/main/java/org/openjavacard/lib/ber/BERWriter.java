@@ -36,12 +36,38 @@ import javacard.framework.Util;
  * <p/>
  * Binary data can be emitted non-incrementally. APDU sending utilities are provided for your convenience.
  * <p/>
+ * When sending, data is serialized into the APDU buffer piece by piece, so responses
+ * may be larger than the APDU buffer. If the response does not fit the expected length
+ * then SW=61XX is returned and the rest can be sent in response to GET RESPONSE.
+ * <p/>
  * This class implements the BERHandler interface so that processing chains can be constructed.
  * <p/>
+ * Static parts of the output can be prepared once using a BERFragment, which is then
+ * emitted as a single pre-encoded entry.
+ * <p/>
+ * The size of a response can be determined in advance using measurement mode,
+ * which accounts lengths without referencing or staging any data.
+ * <p/>
+ * Buffers given to the build methods are referenced, so they must never be
+ * global arrays such as the APDU buffer: Java Card does not allow storing
+ * references to those. Data in the output buffer, for example command data
+ * in the APDU buffer, is instead given by offset using buildPrimitiveInPlace(),
+ * buildEncodedInPlace() or beginInPlace(). The buffer itself is only passed
+ * when finishing, and the data is moved into place without further copies.
+ * <p/>
  * @see org.openjavacard.lib.ber.BERHandler
+ * @see org.openjavacard.lib.ber.BERFragment
  */
 public class BERWriter implements BERHandler {
 
+    /** Pseudo-tag used for pre-encoded data (not a valid tag) */
+    private static final short TAG_ENCODED = (short)0xFFFF;
+
+    /** Entry flag: data is in the output buffer, referenced by offset only */
+    private static final byte FLAG_OUTPUT = 1;
+    /** Entry flag: value starts with a prefix byte, written as part of the header */
+    private static final byte FLAG_PREFIX = 2;
+
     /** Fixed: maximum number of tags */
     private final byte mMaxTags;
     /** Fixed: maximum depth of hierarchy */
@@ -50,7 +76,7 @@ public class BERWriter implements BERHandler {
     /** Transient: state variables */
     private final short[]  mVars;
     /** Number of transient variables */
-    private static final byte NUM_VAR = 5;
+    private static final byte NUM_VAR = 8;
     /** Variable: maximum allowed length */
     private static final byte VAR_MAX_LENGTH = 0;
     /** Variable: current running length */
@@ -61,13 +87,23 @@ public class BERWriter implements BERHandler {
     private static final byte VAR_INDEX      = 3;
     /** Variable: current temp offset */
     private static final byte VAR_TMP        = 4;
+    /** Variable: number of bytes already sent */
+    private static final byte VAR_SENT       = 5;
+    /** Variable: non-zero in measurement mode */
+    private static final byte VAR_MEASURE    = 6;
+    /** Variable: non-zero if handler data is in the output buffer */
+    private static final byte VAR_IN_PLACE   = 7;
 
     /** Transient: stack for tags */
     private final short[]  mTagStk;
-    /** Transient: stack for tag depths */
-    private final byte[]   mDepStk;
+    /** Transient: stack of open constructed tags */
+    private final byte[]   mParStk;
     /** Transient: stack for tag buffers */
     private final Object[] mBufStk;
+    /** Transient: stack for entry flags */
+    private final byte[]   mFlgStk;
+    /** Transient: stack for value prefixes */
+    private final byte[]   mPfxStk;
     /** Transient: stack for tag buffer offsets */
     private final short[]  mOffStk;
     /** Transient: stack for tag buffer lengths */
@@ -85,8 +121,10 @@ public class BERWriter implements BERHandler {
         mMaxDepth = maxDepth;
         mVars = new short[NUM_VAR];
         mTagStk = new short[maxTags];
-        mDepStk = new byte[maxTags];
+        mParStk = new byte[maxDepth];
         mBufStk = new Object[maxTags];
+        mFlgStk = new byte[maxTags];
+        mPfxStk = new byte[maxTags];
         mOffStk = new short[maxTags];
         mLenStk = new short[maxTags];
         mTmp = new byte[tmpSize];
@@ -103,8 +141,10 @@ public class BERWriter implements BERHandler {
         mMaxDepth = maxDepth;
         mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
         mTagStk = JCSystem.makeTransientShortArray(maxTags, clearOn);
-        mDepStk = JCSystem.makeTransientByteArray(maxTags, clearOn);
+        mParStk = JCSystem.makeTransientByteArray(maxDepth, clearOn);
         mBufStk = JCSystem.makeTransientObjectArray(maxTags, clearOn);
+        mFlgStk = JCSystem.makeTransientByteArray(maxTags, clearOn);
+        mPfxStk = JCSystem.makeTransientByteArray(maxTags, clearOn);
         mOffStk = JCSystem.makeTransientShortArray(maxTags, clearOn);
         mLenStk = JCSystem.makeTransientShortArray(maxTags, clearOn);
         mTmp = JCSystem.makeTransientByteArray(tmpSize, clearOn);
@@ -148,6 +188,30 @@ public class BERWriter implements BERHandler {
         return (byte)mVars[VAR_INDEX];
     }
 
+    /**
+     * Return true if in measurement mode
+     * @return true if measuring
+     */
+    public boolean isMeasuring() {
+        return mVars[VAR_MEASURE] != 0;
+    }
+
+    /**
+     * Return the encoded size of a node
+     * <p/>
+     * This includes the header of the node. For constructed
+     * nodes it is only valid after the node has been ended.
+     * <p/>
+     * @param index of the node in build order
+     * @return size of the encoded node
+     */
+    public short getNodeSize(byte index) {
+        if(index < 0 || index >= mVars[VAR_INDEX]) {
+            error();
+        }
+        return (short)(headerSize(index) + mLenStk[index]);
+    }
+
     /**
      * Clear internal state for security purposes
      */
@@ -156,7 +220,9 @@ public class BERWriter implements BERHandler {
         clearShortArray(mVars);
         clearShortArray(mTagStk);
         clearShortArray(mLenStk);
-        clearByteArray(mDepStk);
+        clearByteArray(mParStk);
+        clearByteArray(mFlgStk);
+        clearByteArray(mPfxStk);
         clearByteArray(mTmp);
     }
 
@@ -170,6 +236,43 @@ public class BERWriter implements BERHandler {
         mVars[VAR_DEPTH]   = 0;
         mVars[VAR_INDEX]   = 0;
         mVars[VAR_TMP]     = 0;
+        mVars[VAR_SENT]    = 0;
+        mVars[VAR_MEASURE] = 0;
+        mVars[VAR_IN_PLACE] = 0;
+    }
+
+    /**
+     * Begin constructing BER data from data in the output buffer
+     * <p/>
+     * Primitive objects passed through the handler interface are taken
+     * to be in the buffer later given to finish(), or in the APDU buffer
+     * for finishAndSend(), and are referenced by offset only. This allows
+     * rewriting command data parsed from the APDU buffer using BERReader.parse().
+     * It does not work with streaming parses, which may pass values
+     * from the internal buffer of the reader.
+     * <p/>
+     * @param maxLength maximum output length
+     */
+    public final void beginInPlace(short maxLength) {
+        begin(maxLength);
+        mVars[VAR_IN_PLACE] = 1;
+    }
+
+    /**
+     * Begin measuring BER data
+     * <p/>
+     * In this mode the writer only accounts lengths. Data is neither
+     * referenced nor copied, and the temporary buffer is not used.
+     * The total size is available from getCurrentLength() when back
+     * at top level, and node sizes from getNodeSize().
+     * <p/>
+     * The result can not be emitted. Start over with begin() to build
+     * the data for real, for example after choosing the output path.
+     * <p/>
+     */
+    public final void beginMeasure() {
+        begin((short)0x7FFF);
+        mVars[VAR_MEASURE] = 1;
     }
 
     /**
@@ -180,9 +283,67 @@ public class BERWriter implements BERHandler {
      * @param len of data
      */
     public final void buildPrimitive(short tag, byte[] buf, short off, short len) {
+        short totalLength = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(len) + len);
+        buildEntry(tag, buf, off, len, (byte)0, (byte)0, totalLength);
+    }
+
+    /**
+     * Build a primitive BER object with data in the output buffer
+     * <p/>
+     * The data is referenced by offset in the buffer later given to
+     * finish(), or in the APDU buffer for finishAndSend().
+     * <p/>
+     * @param tag for the object
+     * @param off of data in the output buffer
+     * @param len of data
+     */
+    public final void buildPrimitiveInPlace(short tag, short off, short len) {
+        short totalLength = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(len) + len);
+        buildEntry(tag, null, off, len, FLAG_OUTPUT, (byte)0, totalLength);
+    }
+
+    /**
+     * Insert pre-encoded BER data
+     * <p/>
+     * The data must consist of complete BER objects.
+     * It is referenced and copied as a whole when emitting.
+     * <p/>
+     * @param buf containing encoded data
+     * @param off of encoded data
+     * @param len of encoded data
+     */
+    public final void buildEncoded(byte[] buf, short off, short len) {
+        buildEntry(TAG_ENCODED, buf, off, len, (byte)0, (byte)0, len);
+    }
+
+    /**
+     * Insert pre-encoded BER data from the output buffer
+     * <p/>
+     * Like buildEncoded(), but the data is referenced by offset in
+     * the buffer later given to finish(), or in the APDU buffer
+     * for finishAndSend().
+     * <p/>
+     * @param off of encoded data in the output buffer
+     * @param len of encoded data
+     */
+    public final void buildEncodedInPlace(short off, short len) {
+        buildEntry(TAG_ENCODED, null, off, len, FLAG_OUTPUT, (byte)0, len);
+    }
+
+    /**
+     * Internal: push an entry
+     * @param tag of the entry, TAG_ENCODED for pre-encoded data
+     * @param buf containing data, null if in the output buffer
+     * @param off of data
+     * @param len of data
+     * @param flags for the entry
+     * @param prefix of the value, if flagged
+     * @param size of the entry in the output
+     */
+    private void buildEntry(short tag, byte[] buf, short off, short len,
+                            byte flags, byte prefix, short size) {
         byte current = (byte)mVars[VAR_INDEX];
         byte depth = (byte)mVars[VAR_DEPTH];
-        short totalLength = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(len) + len);
         // check limits
         if(current == mMaxTags) {
             error();
@@ -190,18 +351,37 @@ public class BERWriter implements BERHandler {
         // check that we have only one top node
         //checkSingleToplevel();
         // check for available space
-        checkSpace(totalLength);
+        checkSpace(size);
+        // do not reference data when measuring
+        if(mVars[VAR_MEASURE] != 0) {
+            buf = null;
+            off = 0;
+            flags &= FLAG_PREFIX;
+        }
         // push everything
         mTagStk[current] = tag;
-        mDepStk[current] = depth;
         mBufStk[current] = buf;
+        mFlgStk[current] = flags;
+        mPfxStk[current] = prefix;
         mOffStk[current] = off;
         mLenStk[current] = len;
+        // account for the entry in its parent
+        if(depth > 0) {
+            mLenStk[mParStk[(byte)(depth - 1)]] += size;
+        }
         // increment counters
-        mVars[VAR_LENGTH] += totalLength;
+        mVars[VAR_LENGTH] += size;
         mVars[VAR_INDEX]++;
     }
 
+    /**
+     * Insert a frozen fragment
+     * @param fragment to insert
+     */
+    public final void buildFragment(BERFragment fragment) {
+        buildEncoded(fragment.getBuffer(), (short)0, fragment.getLength());
+    }
+
     /**
      * Internal: consume temp buffer space
      * @param count number of bytes to consume
@@ -224,6 +404,10 @@ public class BERWriter implements BERHandler {
      */
     public final void primitiveByte(short tag, byte value) {
         short len = (short)1;
+        if(mVars[VAR_MEASURE] != 0) {
+            buildPrimitive(tag, null, (short)0, len);
+            return;
+        }
         short tmpOff = allocateTemp(len);
         mTmp[tmpOff] = value;
         buildPrimitive(tag, mTmp, tmpOff, len);
@@ -236,6 +420,10 @@ public class BERWriter implements BERHandler {
      */
     public final void primitiveShort(short tag, short value) {
         short len = (short)2;
+        if(mVars[VAR_MEASURE] != 0) {
+            buildPrimitive(tag, null, (short)0, len);
+            return;
+        }
         short tmpOff = allocateTemp(len);
         Util.setShort(mTmp, tmpOff, value);
         buildPrimitive(tag, mTmp, tmpOff, len);
@@ -249,11 +437,109 @@ public class BERWriter implements BERHandler {
      * @param len of data
      */
     public final void primitiveBuffered(short tag, byte[] buf, short off, short len) {
+        if(mVars[VAR_MEASURE] != 0) {
+            buildPrimitive(tag, null, (short)0, len);
+            return;
+        }
         short tmpOff = allocateTemp(len);
         Util.arrayCopyNonAtomic(buf, off, mTmp, tmpOff, len);
         buildPrimitive(tag, mTmp, tmpOff, len);
     }
 
+    /**
+     * Build a DER BOOLEAN
+     * @param tag of the object
+     * @param value to encode
+     */
+    public final void primitiveBoolean(short tag, boolean value) {
+        primitiveByte(tag, value ? BERValue.BOOLEAN_TRUE : BERValue.BOOLEAN_FALSE);
+    }
+
+    /**
+     * Build a minimal INTEGER from a short value
+     * @param tag of the object
+     * @param value to encode
+     */
+    public final void primitiveInteger(short tag, short value) {
+        if(value >= -128 && value <= 127) {
+            primitiveByte(tag, (byte)value);
+        } else {
+            primitiveShort(tag, value);
+        }
+    }
+
+    /**
+     * Build a minimal INTEGER from a two's complement number
+     * <p/>
+     * Redundant leading bytes are skipped. The number is referenced.
+     * <p/>
+     * @param tag of the object
+     * @param buf containing the number
+     * @param off of the number
+     * @param len of the number
+     */
+    public final void primitiveInteger(short tag, byte[] buf, short off, short len) {
+        short start = BERValue.integerStart(buf, off, len);
+        buildPrimitive(tag, buf, start, (short)(off + len - start));
+    }
+
+    /**
+     * Build a minimal INTEGER from an unsigned magnitude
+     * <p/>
+     * Leading zeroes are skipped and a zero byte is prepended where
+     * required to keep the number positive. The number is referenced.
+     * <p/>
+     * @param tag of the object
+     * @param buf containing the magnitude
+     * @param off of the magnitude
+     * @param len of the magnitude
+     */
+    public final void primitiveUnsigned(short tag, byte[] buf, short off, short len) {
+        short start = BERValue.unsignedStart(buf, off, len);
+        len = (short)(off + len - start);
+        if(buf[start] < 0) {
+            buildPrefixed(tag, (byte)0, buf, start, len);
+        } else {
+            buildPrimitive(tag, buf, start, len);
+        }
+    }
+
+    /**
+     * Build a BIT STRING
+     * <p/>
+     * The unused bits are the low bits of the last byte. The data is referenced.
+     * <p/>
+     * @param tag of the object
+     * @param unused number of unused bits (0-7)
+     * @param buf containing the bits
+     * @param off of the bits
+     * @param len of the bits in bytes
+     */
+    public final void primitiveBitString(short tag, byte unused, byte[] buf, short off, short len) {
+        if(unused < 0 || unused > BERValue.BITSTRING_MAX_UNUSED || (len == 0 && unused != 0)) {
+            error();
+        }
+        buildPrefixed(tag, unused, buf, off, len);
+    }
+
+    /**
+     * Internal: build a primitive object with a single-byte prefix
+     * <p/>
+     * The prefix is kept with the entry and written as part of its header,
+     * followed by the referenced data, so the object is a single node.
+     * <p/>
+     * @param tag of the object
+     * @param prefix to prepend to the data
+     * @param buf containing data
+     * @param off of data
+     * @param len of data
+     */
+    private void buildPrefixed(short tag, byte prefix, byte[] buf, short off, short len) {
+        short valueLength = (short)(len + 1);
+        short totalLength = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(valueLength) + valueLength);
+        buildEntry(tag, buf, off, len, FLAG_PREFIX, prefix, totalLength);
+    }
+
     /**
      * Begin building a constructed BER object
      * @param tag of the object
@@ -271,10 +557,13 @@ public class BERWriter implements BERHandler {
         tag = BERTag.tagAsConstructed(tag);
         // push everything
         mTagStk[current] = tag;
-        mDepStk[current] = depth;
         mBufStk[current] = null;
+        mFlgStk[current] = 0;
+        mPfxStk[current] = 0;
         mOffStk[current] = 0;
         mLenStk[current] = 0;
+        // remember as open parent
+        mParStk[depth] = current;
         // increment counters
         mVars[VAR_INDEX]++;
         mVars[VAR_DEPTH]++;
@@ -284,53 +573,39 @@ public class BERWriter implements BERHandler {
      * Finish building a constructed BER tag
      */
     public final void endConstructed() {
-        short last = (short)(mVars[VAR_INDEX] - 1);
-        short depth = mVars[VAR_DEPTH];
-        short start = -1;
-        short valueLength = 0;
+        byte depth = (byte)(mVars[VAR_DEPTH] - 1);
         // check that we are in a constructed node
-        if(mVars[VAR_DEPTH] <= 0) {
+        if(depth < 0) {
             error();
         }
-        // iterate through tags backwards until we hit
-        // the parent node. count child sizes while doing so.
-        for(short i = last; i >= 0; i--) {
-            short tagDep = mDepStk[i];
-            short tagTag = mTagStk[i];
-            short tagLen = mLenStk[i];
-            // ignore children of children since
-            // they have already been accounted for.
-            if(tagDep > depth) {
-                continue;
-            }
-            // immediate children get counted
-            if(tagDep == depth) {
-                valueLength += BERTag.tagSize(tagTag);
-                valueLength += BERLength.lengthSize(tagLen);
-                valueLength += tagLen;
-            }
-            // found the parent - we are done
-            if(tagDep < depth) {
-                start = i;
-                break;
-            }
-        }
+        // get the open parent node
+        byte start = mParStk[depth];
+        // length of children has been accumulated
+        short valueLength = mLenStk[start];
         // get tag for parent
         short tag = mTagStk[start];
         // compute header length and check
         short headerLength = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(valueLength));
         checkSpace(headerLength);
-        // remember length of children
-        mLenStk[start] = valueLength;
+        // account for the node in its own parent
+        if(depth > 0) {
+            mLenStk[mParStk[(byte)(depth - 1)]] += (short)(headerLength + valueLength);
+        }
         // add what is left of the length
         mVars[VAR_LENGTH] += headerLength;
         // back up in depth
-        mVars[VAR_DEPTH]--;
+        mVars[VAR_DEPTH] = depth;
     }
 
     /**
      * Emit all the prepared data
-     *
+     * <p/>
+     * The output buffer may be the same buffer that data was referenced from,
+     * or the buffer that in-place data refers to, for example when building a
+     * response from command data in the APDU buffer. That data is then moved
+     * into place before headers are written, which destroys it. In that case
+     * finish can only be done once.
+     * <p/>
      * @param buf to write to
      * @param off to write at
      * @param len of available space
@@ -338,24 +613,25 @@ public class BERWriter implements BERHandler {
      */
     public final short finish(byte[] buf, short off, short len) {
         short cur = off;
-        // check that we are at top level
-        if(mVars[VAR_DEPTH] != 0) {
+        // check that we are at top level and not measuring
+        if(mVars[VAR_DEPTH] != 0 || mVars[VAR_MEASURE] != 0) {
             error();
         }
         // check total length
         if(mVars[VAR_LENGTH] > len) {
             error();
         }
+        // use overlap-safe procedure if we reference the output buffer
+        if(references(buf)) {
+            return finishInPlace(buf, off);
+        }
         // iterate all tags in forward direction
         for(short i = 0; i < mVars[VAR_INDEX]; i++) {
-            short tag = mTagStk[i];
             Object tagBufObj = mBufStk[i];
             short tagOff = mOffStk[i];
             short tagLen = mLenStk[i];
-            // put the tag
-            cur = BERTag.putTag(buf, cur, tag);
-            // put the length
-            cur = BERLength.putLength(buf, cur, tagLen);
+            // put the header, unless pre-encoded
+            cur = putHeader(buf, cur, i);
             // put the data, if present
             if(tagBufObj != null) {
                 byte[] tagBuf = (byte[])tagBufObj;
@@ -373,19 +649,388 @@ public class BERWriter implements BERHandler {
         return actualLength;
     }
 
+    /**
+     * Internal: emit all prepared data into a buffer that is also referenced
+     * <p/>
+     * Data referenced from the output buffer is moved first: entries that
+     * move towards the end are copied back to front, then entries that move
+     * towards the start are copied front to back. Headers and data from other
+     * buffers are written last, when all referenced data has been consumed.
+     * <p/>
+     * This requires referenced regions to be disjoint and in output order.
+     * Entries violating this are relocated to the temporary buffer beforehand.
+     * <p/>
+     * @param buf to write to
+     * @param off to write at
+     * @return length of data
+     */
+    private short finishInPlace(byte[] buf, short off) {
+        short count = mVars[VAR_INDEX];
+        short total = mVars[VAR_LENGTH];
+        short i, pos;
+        // relocate referenced regions that are out of order
+        short last = 0;
+        for(i = 0; i < count; i++) {
+            if(inOutput(i, buf)) {
+                short tagOff = mOffStk[i];
+                if(tagOff < last) {
+                    relocate(i, buf);
+                } else {
+                    last = (short)(tagOff + mLenStk[i]);
+                }
+            }
+        }
+        // move data towards the end, back to front
+        pos = (short)(off + total);
+        for(i = (short)(count - 1); i >= 0; i--) {
+            short tagLen = mLenStk[i];
+            if(hasData(i)) {
+                pos -= tagLen;
+                if(inOutput(i, buf) && pos > mOffStk[i]) {
+                    Util.arrayCopyNonAtomic(buf, mOffStk[i], buf, pos, tagLen);
+                }
+            }
+            pos -= headerSize(i);
+        }
+        // move data towards the start, front to back
+        pos = off;
+        for(i = 0; i < count; i++) {
+            short tagLen = mLenStk[i];
+            pos += headerSize(i);
+            if(hasData(i)) {
+                if(inOutput(i, buf) && pos < mOffStk[i]) {
+                    Util.arrayCopyNonAtomic(buf, mOffStk[i], buf, pos, tagLen);
+                }
+                pos += tagLen;
+            }
+        }
+        // write headers and data from other buffers
+        pos = off;
+        for(i = 0; i < count; i++) {
+            short tagLen = mLenStk[i];
+            pos = putHeader(buf, pos, i);
+            if(hasData(i)) {
+                if(!inOutput(i, buf)) {
+                    Util.arrayCopyNonAtomic((byte[])mBufStk[i], mOffStk[i], buf, pos, tagLen);
+                }
+                pos += tagLen;
+            }
+        }
+        // check that it agrees with state
+        short actualLength = (short)(pos - off);
+        if(total != actualLength) {
+            error();
+        }
+        // return the length
+        return actualLength;
+    }
+
+    /**
+     * Emit part of the prepared data
+     * <p/>
+     * Fails if the emitted part contains data in the output buffer.
+     * <p/>
+     * @param buf to write to
+     * @param off to write at
+     * @param skip number of bytes of output to skip
+     * @param len number of bytes of output to write
+     * @return offset after written data
+     */
+    public final short finishPart(byte[] buf, short off, short skip, short len) {
+        short cur = off;
+        short pos = 0;
+        short end = (short)(skip + len);
+        // check that we are at top level and not measuring
+        if(mVars[VAR_DEPTH] != 0 || mVars[VAR_MEASURE] != 0) {
+            error();
+        }
+        // check the requested range
+        if(skip < 0 || len < 0 || end > mVars[VAR_LENGTH]) {
+            error();
+        }
+        // iterate all tags in forward direction
+        for(short i = 0; i < mVars[VAR_INDEX] && pos < end; i++) {
+            Object tagBufObj = mBufStk[i];
+            short tagOff = mOffStk[i];
+            short tagLen = mLenStk[i];
+            short hdrLen = headerSize(i);
+            // in-place data can not be emitted in parts
+            if((mFlgStk[i] & FLAG_OUTPUT) != 0) {
+                error();
+            }
+            // put the header
+            if(hdrLen == 0) {
+                // pre-encoded data has no header
+            } else if(pos >= skip && (short)(pos + hdrLen) <= end) {
+                cur = putHeader(buf, cur, i);
+            } else {
+                for(short h = 0; h < hdrLen; h++) {
+                    short p = (short)(pos + h);
+                    if(p >= skip && p < end) {
+                        buf[cur++] = headerByte(i, h);
+                    }
+                }
+            }
+            pos += hdrLen;
+            // put the data, if present
+            if(tagBufObj != null) {
+                short first = pos < skip ? skip : pos;
+                short last = (short)(pos + tagLen);
+                if(last > end) {
+                    last = end;
+                }
+                if(first < last) {
+                    byte[] tagBuf = (byte[])tagBufObj;
+                    short count = (short)(last - first);
+                    Util.arrayCopyNonAtomic(tagBuf, (short)(tagOff + first - pos), buf, cur, count);
+                    cur += count;
+                }
+                pos += tagLen;
+            }
+        }
+        // check that we produced what was requested
+        if((short)(cur - off) != len) {
+            error();
+        }
+        // return the new offset
+        return cur;
+    }
+
     /**
      * Emit prepared data into APDU buffer and send it
-     *
+     * <p/>
+     * The data is serialized into the APDU buffer in pieces.
+     * Extended length responses are sent if the command allows it.
+     * <p/>
+     * Data may be in the APDU buffer, given using the in-place methods.
+     * If the response fits the expected length it is then built in place
+     * without further copies. Otherwise that data is relocated to the
+     * temporary buffer.
+     * <p/>
+     * If the data exceeds the expected length then SW=61XX
+     * is thrown after sending the first part of the data.
+     * The remaining data can then be sent using sendRemaining()
+     * in response to GET RESPONSE. Buffers given to the writer
+     * must remain valid until then.
+     * <p/>
      * @param apdu to use for sending
      * @return length of sent data
      */
     public final short finishAndSend(APDU apdu) {
+        // check that we are at top level and not measuring
+        if(mVars[VAR_DEPTH] != 0 || mVars[VAR_MEASURE] != 0) {
+            error();
+        }
+        // start from the beginning
+        mVars[VAR_SENT] = 0;
+        // determine how much we may send
+        short le = apdu.setOutgoing();
+        // handle data referenced from the APDU buffer
+        byte[] buf = apdu.getBuffer();
+        if(references(buf)) {
+            short length = mVars[VAR_LENGTH];
+            if(length <= le && length <= (short)buf.length) {
+                // build the response in place
+                finish(buf, (short)0, length);
+                apdu.setOutgoingLength(length);
+                apdu.sendBytes((short)0, length);
+                mVars[VAR_SENT] = length;
+                return length;
+            }
+            // move the data out of the way
+            for(short i = 0; i < mVars[VAR_INDEX]; i++) {
+                if(inOutput(i, buf)) {
+                    relocate(i, buf);
+                }
+            }
+        }
+        // send as much as possible
+        return send(apdu, le);
+    }
+
+    /**
+     * Send remaining data after SW=61XX
+     * <p/>
+     * To be called when processing GET RESPONSE.
+     * <p/>
+     * @param apdu to use for sending
+     * @return length of sent data
+     */
+    public final short sendRemaining(APDU apdu) {
+        return send(apdu, apdu.setOutgoing());
+    }
+
+    /**
+     * Internal: send remaining data after setOutgoing
+     * @param apdu to use for sending
+     * @param le expected length
+     * @return length of sent data
+     */
+    private short send(APDU apdu, short le) {
         byte[] buf = apdu.getBuffer();
-        short len = finish(buf, (short)0, (short)buf.length);
-        apdu.setOutgoingAndSend((short)0, len);
+        short bufLen = (short)buf.length;
+        short sent = mVars[VAR_SENT];
+        short remaining = (short)(mVars[VAR_LENGTH] - sent);
+        // check that there is data to send
+        if(remaining < 0 || mVars[VAR_DEPTH] != 0 || mVars[VAR_MEASURE] != 0) {
+            error();
+        }
+        // determine how much we may send
+        short count = le;
+        if(count > remaining) {
+            count = remaining;
+        }
+        apdu.setOutgoingLength(count);
+        // serialize and send in pieces
+        short end = (short)(sent + count);
+        while(sent < end) {
+            short chunk = (short)(end - sent);
+            if(chunk > bufLen) {
+                chunk = bufLen;
+            }
+            finishPart(buf, (short)0, sent, chunk);
+            apdu.sendBytes((short)0, chunk);
+            sent += chunk;
+            mVars[VAR_SENT] = sent;
+        }
+        // indicate remaining data
+        remaining = (short)(mVars[VAR_LENGTH] - sent);
+        if(remaining > 0) {
+            if(remaining > 255) {
+                remaining = 0;
+            }
+            ISOException.throwIt((short)(ISO7816.SW_BYTES_REMAINING_00 | remaining));
+        }
+        return count;
+    }
+
+    /**
+     * Internal: check if any entry has data in the given output buffer
+     * @param buf to check for
+     * @return true if referenced
+     */
+    private boolean references(byte[] buf) {
+        for(short i = 0; i < mVars[VAR_INDEX]; i++) {
+            if(inOutput(i, buf)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Internal: check if an entry has data in the given output buffer
+     * @param index of the entry
+     * @param buf used for output
+     * @return true if in the output buffer
+     */
+    private boolean inOutput(short index, byte[] buf) {
+        return (mFlgStk[index] & FLAG_OUTPUT) != 0 || mBufStk[index] == buf;
+    }
+
+    /**
+     * Internal: check if an entry has data to emit
+     * @param index of the entry
+     * @return true if the entry has data
+     */
+    private boolean hasData(short index) {
+        return (mFlgStk[index] & FLAG_OUTPUT) != 0 || mBufStk[index] != null;
+    }
+
+    /**
+     * Internal: move the data of an entry into the temp buffer
+     * @param index of the entry
+     * @param buf used for output, containing in-place data
+     */
+    private void relocate(short index, byte[] buf) {
+        short tagLen = mLenStk[index];
+        short tmpOff = allocateTemp(tagLen);
+        byte[] src = buf;
+        if((mFlgStk[index] & FLAG_OUTPUT) == 0) {
+            src = (byte[])mBufStk[index];
+        }
+        Util.arrayCopyNonAtomic(src, mOffStk[index], mTmp, tmpOff, tagLen);
+        mBufStk[index] = mTmp;
+        mFlgStk[index] &= ~FLAG_OUTPUT;
+        mOffStk[index] = tmpOff;
+    }
+
+    /**
+     * Internal: determine the length of the value of an entry
+     * @param index of the entry
+     * @return length of the value, including any prefix
+     */
+    private short valueLength(short index) {
+        short len = mLenStk[index];
+        if((mFlgStk[index] & FLAG_PREFIX) != 0) {
+            len++;
+        }
         return len;
     }
 
+    /**
+     * Internal: determine the size of an entry header
+     * @param index of the entry
+     * @return size of header, including any prefix
+     */
+    private short headerSize(short index) {
+        short tag = mTagStk[index];
+        if(tag == TAG_ENCODED) {
+            return 0;
+        }
+        short size = (short)(BERTag.tagSize(tag) + BERLength.lengthSize(valueLength(index)));
+        if((mFlgStk[index] & FLAG_PREFIX) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Internal: write the header of an entry
+     * @param buf to write to
+     * @param off to write at
+     * @param index of the entry
+     * @return offset after the header
+     */
+    private short putHeader(byte[] buf, short off, short index) {
+        short tag = mTagStk[index];
+        if(tag != TAG_ENCODED) {
+            off = BERTag.putTag(buf, off, tag);
+            off = BERLength.putLength(buf, off, valueLength(index));
+            if((mFlgStk[index] & FLAG_PREFIX) != 0) {
+                buf[off++] = mPfxStk[index];
+            }
+        }
+        return off;
+    }
+
+    /**
+     * Internal: determine a single byte of an encoded header
+     * @param entry of the header
+     * @param index of the byte in the header
+     * @return the byte
+     */
+    private byte headerByte(short entry, short index) {
+        short tag = mTagStk[entry];
+        short len = valueLength(entry);
+        short tagSize = BERTag.tagSize(tag);
+        if(index < tagSize) {
+            return (byte)(tag >> (index == 0 ? 8 : 0));
+        }
+        index -= tagSize;
+        short lenSize = BERLength.lengthSize(len);
+        if(index == lenSize) {
+            return mPfxStk[entry];
+        }
+        if(len <= 127) {
+            return (byte)len;
+        }
+        if(index == 0) {
+            return (byte)0x82;
+        }
+        return (byte)(len >> (index == 1 ? 8 : 0));
+    }
+
     /**
      * Handler implementation: re-emit a primitive tag
      * @param source feeding the tag
@@ -397,7 +1042,11 @@ public class BERWriter implements BERHandler {
      * @return always true
      */
     public final boolean handlePrimitive(BERSource source, byte depth, short tag, byte[] dataBuf, short dataOff, short dataLen) {
-        buildPrimitive(tag, dataBuf, dataOff, dataLen);
+        if(mVars[VAR_IN_PLACE] != 0) {
+            buildPrimitiveInPlace(tag, dataOff, dataLen);
+        } else {
+            buildPrimitive(tag, dataBuf, dataOff, dataLen);
+        }
         return true;
     }
 
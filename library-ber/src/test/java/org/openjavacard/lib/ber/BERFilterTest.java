@@ -0,0 +1,75 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BERFilterTest {
+
+    BERReader mReader;
+
+    @Before
+    public void prepare() {
+        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test
+    public void testMatchPath() {
+        BERFilter filter = new BERFilter(new byte[] {
+                (byte)0x04, (byte)0x6F, (byte)0xA5, (byte)0xBF, (byte)0x0C, (byte)0x5F, (byte)0x20
+        });
+        short[] tags = new short[] { (short)0x6F00, (short)0xA500, (short)0xBF0C, (short)0x5F20, (short)0x0400 };
+        Assert.assertEquals(BERFilter.MATCH_PREFIX, filter.match(tags, (short)0));
+        Assert.assertEquals(BERFilter.MATCH_PREFIX, filter.match(tags, (short)2));
+        Assert.assertEquals(BERFilter.MATCH_FULL, filter.match(tags, (short)3));
+        Assert.assertEquals(BERFilter.MATCH_FULL, filter.match(tags, (short)4));
+        tags[1] = (short)0x8400;
+        Assert.assertEquals(BERFilter.MATCH_NONE, filter.match(tags, (short)1));
+    }
+
+    @Test
+    public void testFilteredParse() {
+        BERFilter filter = new BERFilter(new byte[] {
+                (byte)0x03, (byte)0x6F, (byte)0xA5, (byte)0x87,
+                (byte)0x02, (byte)0x6F, (byte)0x84,
+        });
+        BERReaderTest.Recorder expected = new BERReaderTest.Recorder();
+        expected.handleBeginConstructed(null, (byte)0, (short)0x6F00);
+        expected.handlePrimitive(null, (byte)1, (short)0x8400, BERReaderTest.NESTED, (short)4, (short)3);
+        expected.handleBeginConstructed(null, (byte)1, (short)0xA500);
+        expected.handlePrimitive(null, (byte)2, (short)0x8700, BERReaderTest.NESTED, (short)21, (short)1);
+        expected.handleFinishConstructed(null, (byte)1, (short)0xA500);
+        expected.handleFinishConstructed(null, (byte)0, (short)0x6F00);
+        BERReaderTest.Recorder actual = new BERReaderTest.Recorder();
+        mReader.parse(BERReaderTest.NESTED, (short)0, (short)BERReaderTest.NESTED.length, filter, actual);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testFilteredParseSubtree() {
+        BERFilter filter = new BERFilter(new byte[] {
+                (byte)0x03, (byte)0x6F, (byte)0xA5, (byte)0xBF, (byte)0x0C,
+        });
+        BERReaderTest.Recorder expected = new BERReaderTest.Recorder();
+        expected.handleBeginConstructed(null, (byte)0, (short)0x6F00);
+        expected.handleBeginConstructed(null, (byte)1, (short)0xA500);
+        expected.handleBeginConstructed(null, (byte)2, (short)0xBF0C);
+        expected.handlePrimitive(null, (byte)3, (short)0x5F20, BERReaderTest.NESTED, (short)15, (short)2);
+        expected.handleBeginConstructed(null, (byte)3, (short)0x3000);
+        expected.handleFinishConstructed(null, (byte)3, (short)0x3000);
+        expected.handleFinishConstructed(null, (byte)2, (short)0xBF0C);
+        expected.handleFinishConstructed(null, (byte)1, (short)0xA500);
+        expected.handleFinishConstructed(null, (byte)0, (short)0x6F00);
+        BERReaderTest.Recorder actual = new BERReaderTest.Recorder();
+        mReader.parse(BERReaderTest.NESTED, (short)0, (short)BERReaderTest.NESTED.length, filter, actual);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidSpec() {
+        new BERFilter(new byte[] { (byte)0x02, (byte)0x6F, (byte)0xBF });
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BERIndexTest {
+
+    BERReader mReader;
+    BERIndex mIndex;
+
+    @Before
+    public void prepare() {
+        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+        mIndex = new BERIndex((short)16, JCSystem.CLEAR_ON_DESELECT);
+        byte[] buf = BERReaderTest.NESTED;
+        mReader.index(buf, (short)0, (short)buf.length, mIndex);
+    }
+
+    @Test
+    public void testEntries() {
+        Assert.assertEquals(8, mIndex.getCount());
+        Assert.assertEquals(0x6F00, mIndex.getTag((short)0));
+        Assert.assertEquals((short)0x8400, mIndex.getTag((short)1));
+        Assert.assertEquals(1, mIndex.getDepth((short)1));
+        Assert.assertEquals(4, mIndex.getOffset((short)1));
+        Assert.assertEquals(3, mIndex.getLength((short)1));
+        Assert.assertEquals(0x0400, mIndex.getTag((short)7));
+        Assert.assertEquals(0, mIndex.getDepth((short)7));
+    }
+
+    @Test
+    public void testFind() {
+        short i = mIndex.find((short)0x5F20);
+        Assert.assertEquals(4, i);
+        Assert.assertEquals(15, mIndex.getOffset(i));
+        Assert.assertEquals(-1, mIndex.findNext(i, (short)0x5F20));
+        Assert.assertEquals(-1, mIndex.find((short)0x9F38));
+    }
+
+    @Test
+    public void testFindChild() {
+        short fci = mIndex.findChild((short)-1, (short)0x6F00);
+        Assert.assertEquals(0, fci);
+        short prop = mIndex.findChild(fci, (short)0xA500);
+        Assert.assertEquals(2, prop);
+        Assert.assertEquals(6, mIndex.findChild(prop, (short)0x8700));
+        Assert.assertEquals(-1, mIndex.findChild(fci, (short)0x8700));
+        Assert.assertEquals(7, mIndex.findChild((short)-1, (short)0x0400));
+        Assert.assertEquals(-1, mIndex.firstChild((short)7));
+    }
+
+    @Test
+    public void testSiblings() {
+        Assert.assertEquals(7, mIndex.nextSibling((short)0));
+        Assert.assertEquals(2, mIndex.nextSibling((short)1));
+        Assert.assertEquals(-1, mIndex.nextSibling((short)2));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testFirstChildNegative() {
+        mIndex.firstChild((short)-2);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testFirstChildBeyondCount() {
+        mIndex.firstChild(mIndex.getCount());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testFindChildInvalid() {
+        mIndex.findChild((short)8, (short)0x8400);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testOverflow() {
+        BERIndex small = new BERIndex((short)4, JCSystem.CLEAR_ON_DESELECT);
+        byte[] buf = BERReaderTest.NESTED;
+        mReader.index(buf, (short)0, (short)buf.length, small);
+    }
+
+}
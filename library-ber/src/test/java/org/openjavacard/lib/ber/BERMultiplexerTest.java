@@ -0,0 +1,62 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BERMultiplexerTest {
+
+    BERReader mReader;
+
+    @Before
+    public void prepare() {
+        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test
+    public void testFanOut() {
+        byte[] buf = BERReaderTest.NESTED;
+        BERReaderTest.Recorder expected = new BERReaderTest.Recorder();
+        mReader.parse(buf, (short)0, (short)buf.length, expected);
+
+        BERReaderTest.Recorder first = new BERReaderTest.Recorder();
+        BERWriter writer = new BERWriter((byte)32, (byte)32, (short)0);
+        BERMultiplexer mux = new BERMultiplexer(new BERHandler[] { first, writer },
+                                                JCSystem.CLEAR_ON_DESELECT);
+        writer.begin((short)128);
+        mux.reset();
+        mReader.parse(buf, (short)0, (short)buf.length, mux);
+        Assert.assertEquals(2, mux.getAttachedCount());
+        Assert.assertArrayEquals(expected.toByteArray(), first.toByteArray());
+
+        byte[] out = new byte[128];
+        short len = writer.finish(out, (short)0, (short)out.length);
+        Assert.assertArrayEquals(buf, Arrays.copyOf(out, len));
+    }
+
+    @Test
+    public void testDetach() {
+        byte[] buf = BERReaderTest.NESTED;
+        BERReaderTest.Recorder all = new BERReaderTest.Recorder();
+        BERReaderTest.Recorder some = new BERReaderTest.Recorder() {
+            public boolean handlePrimitive(BERSource source, byte depth, short tag, byte[] dataBuf, short dataOff, short dataLen) {
+                super.handlePrimitive(source, depth, tag, dataBuf, dataOff, dataLen);
+                return false;
+            }
+        };
+        BERMultiplexer mux = new BERMultiplexer(new BERHandler[] { some, all },
+                                                JCSystem.CLEAR_ON_DESELECT);
+        mux.reset();
+        mReader.parse(buf, (short)0, (short)buf.length, mux);
+        Assert.assertFalse(mux.isAttached((short)0));
+        Assert.assertTrue(mux.isAttached((short)1));
+        // begin 6F, primitive 84
+        Assert.assertEquals(4 + 8, some.size());
+        mux.reset();
+        Assert.assertEquals(2, mux.getAttachedCount());
+    }
+
+}
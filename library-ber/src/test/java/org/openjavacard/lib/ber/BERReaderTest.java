@@ -1,11 +1,40 @@
 package org.openjavacard.lib.ber;
 
+import javacard.framework.ISOException;
 import javacard.framework.JCSystem;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+
 public class BERReaderTest {
 
+    static final byte[] NESTED = new byte[] {
+            (byte)0x6F, (byte)0x14,
+              (byte)0x84, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+              (byte)0xA5, (byte)0x0D,
+                (byte)0xBF, (byte)0x0C, (byte)0x07,
+                  (byte)0x5F, (byte)0x20, (byte)0x02, (byte)0x41, (byte)0x42,
+                  (byte)0x30, (byte)0x00,
+                (byte)0x87, (byte)0x01, (byte)0x01,
+            (byte)0x04, (byte)0x00,
+    };
+
+    /** Same structure as NESTED using indefinite and long lengths */
+    static final byte[] INDEFINITE = new byte[] {
+            (byte)0x6F, (byte)0x80,
+              (byte)0x84, (byte)0x83, (byte)0x00, (byte)0x00, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+              (byte)0xA5, (byte)0x11,
+                (byte)0xBF, (byte)0x0C, (byte)0x80,
+                  (byte)0x5F, (byte)0x20, (byte)0x02, (byte)0x41, (byte)0x42,
+                  (byte)0x30, (byte)0x80, (byte)0x00, (byte)0x00,
+                (byte)0x00, (byte)0x00,
+                (byte)0x87, (byte)0x01, (byte)0x01,
+            (byte)0x00, (byte)0x00,
+            (byte)0x04, (byte)0x84, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+    };
+
     byte[] tmp;
 
     BERReader mReader;
@@ -13,7 +42,7 @@ public class BERReaderTest {
     @Before
     public void prepare() {
         tmp = new byte[128];
-        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+        mReader = new BERReader((byte)32, (short)32, JCSystem.CLEAR_ON_DESELECT);
     }
 
     @Test
@@ -31,4 +60,264 @@ public class BERReaderTest {
         });
     }
 
+    @Test
+    public void testStreamWhole() {
+        Recorder expected = new Recorder();
+        mReader.parse(NESTED, (short)0, (short)NESTED.length, expected);
+        Recorder actual = new Recorder();
+        mReader.streamBegin();
+        mReader.streamChunk(NESTED, (short)0, (short)NESTED.length, actual);
+        mReader.streamFinish();
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testStreamSplitAnywhere() {
+        Recorder expected = new Recorder();
+        mReader.parse(NESTED, (short)0, (short)NESTED.length, expected);
+        for(short split = 0; split <= NESTED.length; split++) {
+            Recorder actual = new Recorder();
+            mReader.streamBegin();
+            mReader.streamChunk(NESTED, (short)0, split, actual);
+            mReader.streamChunk(NESTED, split, (short)(NESTED.length - split), actual);
+            mReader.streamFinish();
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void testStreamBytewise() {
+        Recorder expected = new Recorder();
+        mReader.parse(NESTED, (short)0, (short)NESTED.length, expected);
+        Recorder actual = new Recorder();
+        mReader.streamBegin();
+        for(short i = 0; i < NESTED.length; i++) {
+            mReader.streamChunk(NESTED, i, (short)1, actual);
+        }
+        mReader.streamFinish();
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testStreamIncomplete() {
+        mReader.streamBegin();
+        mReader.streamChunk(NESTED, (short)0, (short)(NESTED.length - 3), new Recorder());
+        mReader.streamFinish();
+    }
+
+    @Test(expected = ISOException.class)
+    public void testStreamValueTooLarge() {
+        BERReader reader = new BERReader((byte)4, (short)2, JCSystem.CLEAR_ON_DESELECT);
+        reader.streamBegin();
+        reader.streamChunk(NESTED, (short)0, (short)4, new Recorder());
+    }
+
+    @Test
+    public void testCursorPath() {
+        mReader.cursorBegin((short)0, (short)NESTED.length);
+        Assert.assertTrue(mReader.cursorFind(NESTED, (short)0x6F00));
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorFind(NESTED, (short)0xA500));
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorFind(NESTED, (short)0xBF0C));
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorFind(NESTED, (short)0x5F20));
+        Assert.assertEquals(3, mReader.cursorDepth());
+        Assert.assertEquals(15, mReader.cursorOffset());
+        Assert.assertEquals(2, mReader.cursorLength());
+        Assert.assertTrue(mReader.cursorNext(NESTED));
+        Assert.assertEquals(0x3000, mReader.cursorTag());
+        Assert.assertFalse(mReader.cursorNext(NESTED));
+        mReader.cursorLeave();
+        Assert.assertTrue(mReader.cursorNext(NESTED));
+        Assert.assertEquals((short)0x8700, mReader.cursorTag());
+    }
+
+    @Test
+    public void testCursorSkip() {
+        mReader.cursorBegin((short)0, (short)NESTED.length);
+        Assert.assertTrue(mReader.cursorNext(NESTED));
+        Assert.assertEquals(0x6F00, mReader.cursorTag());
+        Assert.assertTrue(mReader.cursorNext(NESTED));
+        Assert.assertEquals(0x0400, mReader.cursorTag());
+        Assert.assertEquals(0, mReader.cursorLength());
+        Assert.assertFalse(mReader.cursorNext(NESTED));
+        Assert.assertFalse(mReader.cursorFind(NESTED, (short)0x6F00));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testCursorEnterPrimitive() {
+        mReader.cursorBegin((short)0, (short)NESTED.length);
+        mReader.cursorNext(NESTED);
+        mReader.cursorEnter();
+        mReader.cursorNext(NESTED);
+        mReader.cursorEnter();
+    }
+
+    @Test
+    public void testDeepNesting() {
+        BERReader reader = new BERReader((byte)61, JCSystem.CLEAR_ON_DESELECT);
+        byte[] buf = new byte[122];
+        for(short i = 0; i < 60; i++) {
+            buf[2 * i] = (byte)0x30;
+            buf[2 * i + 1] = (byte)(120 - 2 * i);
+        }
+        buf[120] = (byte)0x04;
+        buf[121] = (byte)0x00;
+        Recorder recorder = new Recorder();
+        reader.parse(buf, (short)0, (short)buf.length, recorder);
+        Assert.assertEquals(60 * 8 + 5, recorder.size());
+    }
+
+    @Test
+    public void testLongFormLength() {
+        byte[] buf = new byte[263];
+        buf[0] = (byte)0x04;
+        buf[1] = (byte)0x81;
+        buf[2] = (byte)0x80;
+        buf[131] = (byte)0x04;
+        buf[132] = (byte)0x82;
+        buf[133] = (byte)0x00;
+        buf[134] = (byte)0x80;
+        Recorder recorder = new Recorder();
+        mReader.parse(buf, (short)0, (short)263, recorder);
+        Assert.assertEquals(2 * (5 + 128), recorder.size());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testChildOverrun() {
+        byte[] buf = new byte[] {
+                (byte)0x30, (byte)0x03, (byte)0x04, (byte)0x02, (byte)0x00, (byte)0x00
+        };
+        mReader.parse(buf, (short)0, (short)buf.length, new Recorder());
+    }
+
+    @Test
+    public void testIndefinite() {
+        Recorder expected = new Recorder();
+        mReader.parse(NESTED, (short)0, (short)NESTED.length, expected);
+        Recorder actual = new Recorder();
+        mReader.parse(INDEFINITE, (short)0, (short)INDEFINITE.length, actual);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testIndefiniteStream() {
+        Recorder expected = new Recorder();
+        mReader.parse(NESTED, (short)0, (short)NESTED.length, expected);
+        for(short split = 0; split <= INDEFINITE.length; split++) {
+            Recorder actual = new Recorder();
+            mReader.streamBegin();
+            mReader.streamChunk(INDEFINITE, (short)0, split, actual);
+            mReader.streamChunk(INDEFINITE, split, (short)(INDEFINITE.length - split), actual);
+            mReader.streamFinish();
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void testIndefiniteCursor() {
+        mReader.cursorBegin((short)0, (short)INDEFINITE.length);
+        Assert.assertTrue(mReader.cursorFind(INDEFINITE, (short)0x6F00));
+        Assert.assertEquals(27, mReader.cursorLength());
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorFind(INDEFINITE, (short)0xA500));
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorNext(INDEFINITE));
+        Assert.assertEquals((short)0xBF0C, mReader.cursorTag());
+        Assert.assertEquals(9, mReader.cursorLength());
+        mReader.cursorEnter();
+        Assert.assertTrue(mReader.cursorNext(INDEFINITE));
+        Assert.assertTrue(mReader.cursorNext(INDEFINITE));
+        Assert.assertEquals(0x3000, mReader.cursorTag());
+        Assert.assertEquals(0, mReader.cursorLength());
+        Assert.assertFalse(mReader.cursorNext(INDEFINITE));
+        mReader.cursorLeave();
+        Assert.assertTrue(mReader.cursorNext(INDEFINITE));
+        Assert.assertEquals((short)0x8700, mReader.cursorTag());
+        Assert.assertFalse(mReader.cursorNext(INDEFINITE));
+        mReader.cursorLeave();
+        Assert.assertFalse(mReader.cursorNext(INDEFINITE));
+        mReader.cursorLeave();
+        Assert.assertTrue(mReader.cursorNext(INDEFINITE));
+        Assert.assertEquals(0x0400, mReader.cursorTag());
+        Assert.assertFalse(mReader.cursorNext(INDEFINITE));
+    }
+
+    @Test
+    public void testIndefiniteFiltered() {
+        BERFilter filter = new BERFilter(new byte[] {
+                (byte)0x03, (byte)0x6F, (byte)0xA5, (byte)0x87,
+        });
+        Recorder expected = new Recorder();
+        expected.handleBeginConstructed(null, (byte)0, (short)0x6F00);
+        expected.handleBeginConstructed(null, (byte)1, (short)0xA500);
+        expected.handlePrimitive(null, (byte)2, (short)0x8700, INDEFINITE, (short)28, (short)1);
+        expected.handleFinishConstructed(null, (byte)1, (short)0xA500);
+        expected.handleFinishConstructed(null, (byte)0, (short)0x6F00);
+        Recorder actual = new Recorder();
+        mReader.parse(INDEFINITE, (short)0, (short)INDEFINITE.length, filter, actual);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testIndefinitePrimitive() {
+        byte[] buf = new byte[] {
+                (byte)0x04, (byte)0x80, (byte)0x00, (byte)0x00
+        };
+        mReader.parse(buf, (short)0, (short)buf.length, new Recorder());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testIndefiniteUnterminated() {
+        byte[] buf = new byte[] {
+                (byte)0x30, (byte)0x04, (byte)0x30, (byte)0x80, (byte)0x04, (byte)0x00
+        };
+        mReader.parse(buf, (short)0, (short)buf.length, new Recorder());
+    }
+
+    @Test
+    public void testStreamIndefiniteBeyondParent() {
+        // the header of the indefinite child ends after its parent
+        byte[] buf = new byte[] {
+                (byte)0x30, (byte)0x01, (byte)0x30, (byte)0x80, (byte)0x00, (byte)0x00
+        };
+        Recorder expected = new Recorder();
+        expected.handleBeginConstructed(null, (byte)0, (short)0x3000);
+        Recorder actual = new Recorder();
+        mReader.streamBegin();
+        try {
+            mReader.streamChunk(buf, (short)0, (short)buf.length, actual);
+            Assert.fail();
+        } catch (ISOException e) {
+            // rejected before the child is reported
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test(expected = ISOException.class)
+    public void testLengthOverflow() {
+        byte[] buf = new byte[] {
+                (byte)0x04, (byte)0x83, (byte)0x01, (byte)0x00, (byte)0x00
+        };
+        mReader.parse(buf, (short)0, (short)buf.length, new Recorder());
+    }
+
+    /** Handler that records all events for comparison */
+    static class Recorder extends ByteArrayOutputStream implements BERHandler {
+        public boolean handlePrimitive(BERSource source, byte depth, short tag, byte[] dataBuf, short dataOff, short dataLen) {
+            write('P'); write(depth); write(tag >> 8); write(tag); write(dataLen);
+            write(dataBuf, dataOff, dataLen);
+            return true;
+        }
+        public boolean handleBeginConstructed(BERSource source, byte depth, short tag) {
+            write('B'); write(depth); write(tag >> 8); write(tag);
+            return true;
+        }
+        public boolean handleFinishConstructed(BERSource source, byte depth, short tag) {
+            write('F'); write(depth); write(tag >> 8); write(tag);
+            return true;
+        }
+    }
+
 }
@@ -0,0 +1,79 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BERReverseWriterTest {
+
+    byte[] ones;
+    byte[] tmp;
+    byte[] ref;
+
+    BERReverseWriter mWriter;
+    BERWriter mReference;
+
+    @Before
+    public void prepare() {
+        ones = new byte[256];
+        Arrays.fill(ones, (byte)1);
+        tmp = new byte[512];
+        ref = new byte[512];
+        mWriter = new BERReverseWriter(JCSystem.CLEAR_ON_DESELECT);
+        mReference = new BERWriter((byte)32, (byte)32, (short)128);
+    }
+
+    @Test
+    public void testEmpty() {
+        mWriter.begin((short)0, (short)tmp.length);
+        Assert.assertTrue(mWriter.getLength() == 0);
+        Assert.assertTrue(mWriter.getOffset() == tmp.length);
+    }
+
+    @Test
+    public void testNestedMatchesWriter() {
+        mReference.begin((short)128);
+        mReference.beginConstructed((short)0x6F00);
+        mReference.primitiveByte((short)0x8400, (byte)12);
+        mReference.beginConstructed((short)0xA500);
+        mReference.primitiveShort((short)0x5F2D, (short)0x656E);
+        mReference.primitiveBuffered((short)0x8700, ones, (short)0, (short)3);
+        mReference.endConstructed();
+        mReference.endConstructed();
+        short refLen = mReference.finish(ref, (short)0, (short)ref.length);
+
+        mWriter.begin((short)0, (short)tmp.length);
+        short outer = mWriter.mark();
+        short inner = mWriter.mark();
+        mWriter.primitive(tmp, (short)0x8700, ones, (short)0, (short)3);
+        mWriter.primitiveShort(tmp, (short)0x5F2D, (short)0x656E);
+        mWriter.constructed(tmp, (short)0xA500, inner);
+        mWriter.primitiveByte(tmp, (short)0x8400, (byte)12);
+        mWriter.constructed(tmp, (short)0x6F00, outer);
+        short len = mWriter.finish(tmp, (short)0);
+
+        Assert.assertArrayEquals(Arrays.copyOf(ref, refLen), Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testMinimalLength() {
+        mWriter.begin((short)0, (short)tmp.length);
+        mWriter.primitive(tmp, BERTag.TYPE_OCTETSTRING, ones, (short)0, (short)200);
+        short off = mWriter.getOffset();
+        Assert.assertTrue(mWriter.getLength() == 203);
+        Assert.assertTrue(tmp[off] == 0x04);
+        Assert.assertTrue(tmp[off + 1] == (byte)0x81);
+        Assert.assertTrue(tmp[off + 2] == (byte)200);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testOverflow() {
+        mWriter.begin((short)0, (short)4);
+        mWriter.primitive(tmp, BERTag.TYPE_OCTETSTRING, ones, (short)0, (short)3);
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BERRewriterTest {
+
+    byte[] tmp;
+
+    BERReader mReader;
+    BERWriter mWriter;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[128];
+        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+        mWriter = new BERWriter((byte)32, (byte)32, (short)0);
+    }
+
+    private byte[] rewrite(byte[] rules, byte[] input) {
+        BERRewriter rewriter = new BERRewriter(rules, mWriter, JCSystem.CLEAR_ON_DESELECT);
+        mWriter.begin((short)tmp.length);
+        mReader.parse(input, (short)0, (short)input.length, rewriter);
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+        return Arrays.copyOf(tmp, len);
+    }
+
+    @Test
+    public void testIdentity() {
+        byte[] input = BERReaderTest.NESTED;
+        Assert.assertArrayEquals(input, rewrite(new byte[0], input));
+    }
+
+    @Test
+    public void testDropAndRetag() {
+        byte[] rules = new byte[] {
+                BERRewriter.RULE_DROP, (byte)0xA5, (byte)0x00, (byte)0x00, (byte)0x00,
+                BERRewriter.RULE_RETAG, (byte)0x84, (byte)0x00, (byte)0x4F, (byte)0x00,
+        };
+        byte[] expected = new byte[] {
+                (byte)0x6F, (byte)0x05,
+                  (byte)0x4F, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+                (byte)0x04, (byte)0x00,
+        };
+        Assert.assertArrayEquals(expected, rewrite(rules, BERReaderTest.NESTED));
+    }
+
+    @Test
+    public void testDropClassAndWrap() {
+        byte[] rules = new byte[] {
+                BERRewriter.RULE_DROP_CLASS, (byte)0xC0, (byte)0x00, (byte)0x00, (byte)0x00,
+                BERRewriter.RULE_WRAP, (byte)0x84, (byte)0x00, (byte)0x70, (byte)0x00,
+                BERRewriter.RULE_WRAP, (byte)0x30, (byte)0x00, (byte)0x71, (byte)0x00,
+        };
+        byte[] input = new byte[] {
+                (byte)0x30, (byte)0x0B,
+                  (byte)0x84, (byte)0x01, (byte)0x01,
+                  (byte)0xDF, (byte)0x01, (byte)0x01, (byte)0x02,
+                  (byte)0xE0, (byte)0x00,
+                  (byte)0x04, (byte)0x00,
+        };
+        byte[] expected = new byte[] {
+                (byte)0x71, (byte)0x09,
+                  (byte)0x30, (byte)0x07,
+                    (byte)0x70, (byte)0x03,
+                      (byte)0x84, (byte)0x01, (byte)0x01,
+                    (byte)0x04, (byte)0x00,
+        };
+        Assert.assertArrayEquals(expected, rewrite(rules, input));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidRules() {
+        new BERRewriter(new byte[] { (byte)9, 0, 0, 0, 0 }, mWriter, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testRetagToConstructed() {
+        byte[] rules = new byte[] {
+                BERRewriter.RULE_RETAG, (byte)0x84, (byte)0x00, (byte)0xA5, (byte)0x00,
+        };
+        new BERRewriter(rules, mWriter, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testRetagToPrimitive() {
+        byte[] rules = new byte[] {
+                BERRewriter.RULE_RETAG, (byte)0x6F, (byte)0x00, (byte)0x84, (byte)0x00,
+        };
+        new BERRewriter(rules, mWriter, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testWrapPrimitive() {
+        byte[] rules = new byte[] {
+                BERRewriter.RULE_WRAP, (byte)0x6F, (byte)0x00, (byte)0x84, (byte)0x00,
+        };
+        new BERRewriter(rules, mWriter, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BERSchemaTest {
+
+    /** Rules accepting BERReaderTest.NESTED */
+    static final byte[] RULES = new byte[] {
+            // top level: one 6F, optional empty 04
+            (byte)0x00, (byte)0x00, (byte)0x6F, (byte)0x00, (byte)0x01, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0xFF,
+            (byte)0x00, (byte)0x00, (byte)0x04, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+            // 6F: required 84 of 1-16 bytes, required A5
+            (byte)0x6F, (byte)0x00, (byte)0x84, (byte)0x00, (byte)0x01, (byte)0x01, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x10,
+            (byte)0x6F, (byte)0x00, (byte)0xA5, (byte)0x00, (byte)0x01, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0xFF,
+            // A5: optional BF0C, optional 87 of one byte
+            (byte)0xA5, (byte)0x00, (byte)0xBF, (byte)0x0C, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0xFF,
+            (byte)0xA5, (byte)0x00, (byte)0x87, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x01,
+    };
+
+    BERReader mReader;
+
+    @Before
+    public void prepare() {
+        mReader = new BERReader((byte)32, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    private void parse(byte[] rules, byte[] data) {
+        BERSchema schema = new BERSchema(rules, JCSystem.CLEAR_ON_DESELECT);
+        mReader.parse(data, (short)0, (short)data.length, null, schema, new BERReaderTest.Recorder());
+    }
+
+    private static byte[] rule(byte[] rules, int index, int field, int value) {
+        byte[] result = rules.clone();
+        result[index * BERSchema.RULE_SIZE + field] = (byte)value;
+        return result;
+    }
+
+    @Test
+    public void testValid() {
+        parse(RULES, BERReaderTest.NESTED);
+        parse(RULES, BERReaderTest.INDEFINITE);
+    }
+
+    @Test
+    public void testValidRepeated() {
+        BERSchema schema = new BERSchema(RULES, JCSystem.CLEAR_ON_DESELECT);
+        for(int i = 0; i < 3; i++) {
+            mReader.parse(BERReaderTest.NESTED, (short)0, (short)BERReaderTest.NESTED.length,
+                    null, schema, new BERReaderTest.Recorder());
+        }
+    }
+
+    @Test(expected = ISOException.class)
+    public void testLengthTooShort() {
+        // require 84 to have at least 4 bytes
+        parse(rule(RULES, 2, 7, 4), BERReaderTest.NESTED);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testLengthTooLong() {
+        // allow 87 to have no bytes at most
+        parse(rule(rule(RULES, 5, 7, 0), 5, 9, 0), BERReaderTest.NESTED);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testMissingRequired() {
+        // require 87 inside A5 twice
+        byte[] rules = rule(RULES, 5, 4, 2);
+        parse(rule(rules, 5, 5, 2), BERReaderTest.NESTED);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testMissingToplevel() {
+        // require 04 at top level
+        parse(rule(RULES, 1, 4, 1), new byte[] {
+                (byte)0x6F, (byte)0x07,
+                (byte)0x84, (byte)0x01, (byte)0x01,
+                (byte)0xA5, (byte)0x00,
+        });
+    }
+
+    @Test(expected = ISOException.class)
+    public void testTooMany() {
+        parse(RULES, new byte[] {
+                (byte)0x04, (byte)0x00,
+                (byte)0x04, (byte)0x00,
+        });
+    }
+
+    @Test
+    public void testTooManyAtLimit() {
+        // allow the optional 04 up to 127 times
+        BERSchema schema = new BERSchema(rule(RULES, 1, 5, 127), JCSystem.CLEAR_ON_DESELECT);
+        for(int i = 0; i < 127; i++) {
+            Assert.assertTrue(schema.check(BERSchema.TAG_TOPLEVEL, (short)0x0400, (short)0));
+        }
+        // the counter must not wrap around
+        Assert.assertFalse(schema.check(BERSchema.TAG_TOPLEVEL, (short)0x0400, (short)0));
+        Assert.assertFalse(schema.check(BERSchema.TAG_TOPLEVEL, (short)0x0400, (short)0));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testUnknownTag() {
+        // 88 is not allowed inside 6F
+        parse(RULES, new byte[] {
+                (byte)0x6F, (byte)0x08,
+                (byte)0x84, (byte)0x01, (byte)0x01,
+                (byte)0x88, (byte)0x01, (byte)0x01,
+                (byte)0xA5, (byte)0x00,
+        });
+    }
+
+    @Test
+    public void testUnconstrainedParent() {
+        // BF0C has no rules, so anything goes inside
+        parse(RULES, new byte[] {
+                (byte)0x6F, (byte)0x0D,
+                (byte)0x84, (byte)0x01, (byte)0x01,
+                (byte)0xA5, (byte)0x08,
+                (byte)0xBF, (byte)0x0C, (byte)0x05,
+                (byte)0x99, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+        });
+    }
+
+    @Test(expected = ISOException.class)
+    public void testSelfNesting() {
+        byte[] rules = new byte[] {
+                (byte)0x30, (byte)0x00, (byte)0x30, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0xFF,
+        };
+        parse(rules, new byte[] {
+                (byte)0x30, (byte)0x02, (byte)0x30, (byte)0x00,
+        });
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidRules() {
+        new BERSchema(new byte[] { (byte)0x00 }, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+}
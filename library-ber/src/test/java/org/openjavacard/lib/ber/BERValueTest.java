@@ -0,0 +1,103 @@
+package org.openjavacard.lib.ber;
+
+import javacard.framework.ISOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BERValueTest {
+
+    /** OID 1.2.840.113549 (rsadsi) */
+    private static final byte[] OID_RSADSI = new byte[] {
+            (byte)0x2A, (byte)0x86, (byte)0x48, (byte)0x86, (byte)0xF7, (byte)0x0D,
+    };
+
+    /** OID 1.2.840.113549.1.1.11 (sha256WithRSAEncryption) */
+    private static final byte[] OID_SHA256_RSA = new byte[] {
+            (byte)0x2A, (byte)0x86, (byte)0x48, (byte)0x86, (byte)0xF7, (byte)0x0D,
+            (byte)0x01, (byte)0x01, (byte)0x0B,
+    };
+
+    @Test
+    public void testBoolean() {
+        byte[] buf = new byte[] { (byte)0x00, (byte)0xFF };
+        Assert.assertFalse(BERValue.getBoolean(buf, (short)0, (short)1));
+        Assert.assertTrue(BERValue.getBoolean(buf, (short)1, (short)1));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testBooleanNonCanonical() {
+        byte[] buf = new byte[] { (byte)0x01 };
+        BERValue.getBoolean(buf, (short)0, (short)1);
+    }
+
+    @Test
+    public void testInteger() {
+        byte[] buf = new byte[] { (byte)0x00, (byte)0x00, (byte)0x7F, (byte)0xFF, (byte)0xFF, (byte)0x80 };
+        // 00 00 7F -> 7F
+        Assert.assertTrue(BERValue.integerStart(buf, (short)0, (short)3) == 2);
+        Assert.assertFalse(BERValue.integerIsMinimal(buf, (short)0, (short)3));
+        Assert.assertTrue(BERValue.getShortInteger(buf, (short)0, (short)3) == 127);
+        // FF FF 80 -> 80
+        Assert.assertTrue(BERValue.integerStart(buf, (short)3, (short)3) == 5);
+        Assert.assertTrue(BERValue.integerIsNegative(buf, (short)3, (short)3));
+        Assert.assertTrue(BERValue.getShortInteger(buf, (short)3, (short)3) == -128);
+        // 7F FF -> 7FFF
+        Assert.assertTrue(BERValue.integerIsMinimal(buf, (short)2, (short)2));
+        Assert.assertTrue(BERValue.getShortInteger(buf, (short)2, (short)2) == 0x7FFF);
+        // 00 7F -> 7F, the zero is redundant
+        Assert.assertFalse(BERValue.integerIsMinimal(buf, (short)1, (short)2));
+        Assert.assertTrue(BERValue.integerStart(buf, (short)1, (short)2) == 2);
+        // 00 FF -> 00FF, the zero is required
+        byte[] pos = new byte[] { (byte)0x00, (byte)0xFF };
+        Assert.assertTrue(BERValue.integerIsMinimal(pos, (short)0, (short)2));
+        Assert.assertTrue(BERValue.integerStart(pos, (short)0, (short)2) == 0);
+        Assert.assertTrue(BERValue.getShortInteger(pos, (short)0, (short)2) == 0xFF);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testIntegerTooLarge() {
+        byte[] buf = new byte[] { (byte)0x01, (byte)0x00, (byte)0x00 };
+        BERValue.getShortInteger(buf, (short)0, (short)3);
+    }
+
+    @Test
+    public void testUnsigned() {
+        byte[] buf = new byte[] { (byte)0x00, (byte)0x00, (byte)0x80, (byte)0x00 };
+        Assert.assertTrue(BERValue.unsignedStart(buf, (short)0, (short)4) == 2);
+        Assert.assertTrue(BERValue.unsignedStart(buf, (short)0, (short)2) == 1);
+    }
+
+    @Test
+    public void testBitString() {
+        byte[] buf = new byte[] { (byte)0x06, (byte)0xA5, (byte)0xC0 };
+        Assert.assertTrue(BERValue.bitStringUnused(buf, (short)0, (short)3) == 6);
+        Assert.assertTrue(BERValue.bitStringGet(buf, (short)0, (short)3, (short)0));
+        Assert.assertFalse(BERValue.bitStringGet(buf, (short)0, (short)3, (short)1));
+        Assert.assertTrue(BERValue.bitStringGet(buf, (short)0, (short)3, (short)7));
+        Assert.assertTrue(BERValue.bitStringGet(buf, (short)0, (short)3, (short)9));
+        // bits past the end are unused
+        Assert.assertFalse(BERValue.bitStringGet(buf, (short)0, (short)3, (short)10));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testBitStringEmptyWithUnused() {
+        byte[] buf = new byte[] { (byte)0x01 };
+        BERValue.bitStringUnused(buf, (short)0, (short)1);
+    }
+
+    @Test
+    public void testOid() {
+        short len = (short)OID_SHA256_RSA.length;
+        Assert.assertTrue(BERValue.oidIsValid(OID_SHA256_RSA, (short)0, len));
+        Assert.assertFalse(BERValue.oidIsValid(OID_SHA256_RSA, (short)0, (short)4));
+        Assert.assertTrue(BERValue.oidEquals(OID_SHA256_RSA, (short)0, len,
+                OID_SHA256_RSA, (short)0, len));
+        Assert.assertFalse(BERValue.oidEquals(OID_SHA256_RSA, (short)0, len,
+                OID_RSADSI, (short)0, (short)OID_RSADSI.length));
+        Assert.assertTrue(BERValue.oidStartsWith(OID_SHA256_RSA, (short)0, len,
+                OID_RSADSI, (short)0, (short)OID_RSADSI.length));
+        byte[] padded = new byte[] { (byte)0x80, (byte)0x01 };
+        Assert.assertFalse(BERValue.oidIsValid(padded, (short)0, (short)2));
+    }
+
+}
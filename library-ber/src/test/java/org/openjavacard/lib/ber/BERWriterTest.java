@@ -1,9 +1,17 @@
 package org.openjavacard.lib.ber;
 
+import com.licel.jcardsim.base.Simulator;
+import javacard.framework.AID;
+import javacard.framework.APDU;
+import javacard.framework.Applet;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.Field;
 import java.util.Arrays;
 
 public class BERWriterTest {
@@ -98,4 +106,513 @@ public class BERWriterTest {
         Assert.assertTrue(len == 60);
     }
 
+    @Test
+    public void testFinishPart() {
+        mWriter.begin((short)512);
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.buildPrimitive(BERTag.TYPE_OCTETSTRING, count, (short)0, (short)3);
+        mWriter.buildPrimitive((short)0x5F20, count, (short)0, (short)(count.length));
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.primitiveShort(BERTag.TYPE_OCTETSTRING, (short)1234);
+        mWriter.endConstructed();
+        mWriter.endConstructed();
+        byte[] whole = new byte[256];
+        short len = mWriter.finish(whole, (short)0, (short)whole.length);
+        Assert.assertTrue(len == 148);
+        for(short chunk = 1; chunk <= len; chunk++) {
+            byte[] pieces = new byte[256];
+            for(short skip = 0; skip < len; skip += chunk) {
+                short n = (short)Math.min(chunk, len - skip);
+                short end = mWriter.finishPart(pieces, skip, skip, n);
+                Assert.assertTrue(end == skip + n);
+            }
+            Assert.assertArrayEquals(whole, pieces);
+        }
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        mWriter.begin((short)128);
+        for(short i = 0; i < 10; i++) {
+            mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+            mWriter.primitiveByte(BERTag.TYPE_OCTETSTRING, (byte)i);
+        }
+        for(short i = 0; i < 10; i++) {
+            mWriter.endConstructed();
+        }
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+        Assert.assertTrue(len == 50);
+        Assert.assertTrue(tmp[1] == 48);
+        Assert.assertTrue(tmp[46] == 3);
+    }
+
+    @Test
+    public void testConstructedTag() {
+        mWriter.begin((short)128);
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.endConstructed();
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+        Assert.assertTrue(len == 2);
+        Assert.assertTrue(tmp[0] == 0x30);
+    }
+
+    @Test
+    public void testFragment() {
+        BERFragment fragment = new BERFragment((short)32);
+        mWriter.begin((short)32);
+        mWriter.primitiveByte((short)0x8200, (byte)0x38);
+        mWriter.primitiveShort((short)0x8300, (short)0x3F00);
+        fragment.freeze(mWriter);
+        Assert.assertTrue(fragment.getLength() == 7);
+
+        mWriter.begin((short)128);
+        mWriter.beginConstructed((short)0x6200);
+        mWriter.buildFragment(fragment);
+        mWriter.primitiveByte((short)0x8A00, (byte)0x05);
+        mWriter.endConstructed();
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x62, (byte)0x0A,
+                (byte)0x82, (byte)0x01, (byte)0x38,
+                (byte)0x83, (byte)0x02, (byte)0x3F, (byte)0x00,
+                (byte)0x8A, (byte)0x01, (byte)0x05,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+
+        byte[] pieces = new byte[len];
+        for(short i = 0; i < len; i++) {
+            mWriter.finishPart(pieces, i, i, (short)1);
+        }
+        Assert.assertArrayEquals(expected, pieces);
+    }
+
+    @Test
+    public void testInPlace() {
+        // command data at offset 5: 01 02 03 04 05
+        for(int i = 0; i < 5; i++) {
+            tmp[5 + i] = (byte)(i + 1);
+        }
+        mWriter.begin((short)128);
+        mWriter.beginConstructed((short)0x6F00);
+        mWriter.buildPrimitive((short)0x8400, tmp, (short)5, (short)3);
+        mWriter.buildPrimitive((short)0x8500, tmp, (short)8, (short)2);
+        mWriter.endConstructed();
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x6F, (byte)0x09,
+                (byte)0x84, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+                (byte)0x85, (byte)0x02, (byte)0x04, (byte)0x05,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testBuildInPlace() {
+        // command data at offset 5: 01 02 03 04 05
+        for(int i = 0; i < 5; i++) {
+            tmp[5 + i] = (byte)(i + 1);
+        }
+        mWriter.begin((short)128);
+        mWriter.beginConstructed((short)0x6F00);
+        mWriter.buildPrimitiveInPlace((short)0x8400, (short)5, (short)3);
+        mWriter.primitiveByte((short)0x8600, (byte)0x06);
+        mWriter.buildEncodedInPlace((short)8, (short)2);
+        mWriter.endConstructed();
+        assertNotReferenced(mWriter, tmp);
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x6F, (byte)0x0A,
+                (byte)0x84, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+                (byte)0x86, (byte)0x01, (byte)0x06,
+                (byte)0x04, (byte)0x05,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testBeginInPlace() {
+        // rewrite command data at offset 5 without referencing the buffer
+        byte[] cmd = new byte[] {
+                (byte)0x30, (byte)0x07,
+                (byte)0x84, (byte)0x01, (byte)0x01,
+                (byte)0x85, (byte)0x02, (byte)0x02, (byte)0x03,
+        };
+        System.arraycopy(cmd, 0, tmp, 5, cmd.length);
+        BERReader reader = new BERReader((byte)4, JCSystem.CLEAR_ON_DESELECT);
+        mWriter.beginInPlace((short)128);
+        mWriter.beginConstructed((short)0x6F00);
+        reader.parse(tmp, (short)5, (short)cmd.length, mWriter);
+        mWriter.endConstructed();
+        assertNotReferenced(mWriter, tmp);
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x6F, (byte)0x09,
+                (byte)0x30, (byte)0x07,
+                (byte)0x84, (byte)0x01, (byte)0x01,
+                (byte)0x85, (byte)0x02, (byte)0x02, (byte)0x03,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testFinishPartInPlace() {
+        mWriter.begin((short)128);
+        mWriter.buildPrimitiveInPlace((short)0x8400, (short)5, (short)3);
+        mWriter.finishPart(tmp, (short)0, (short)0, (short)5);
+    }
+
+    @Test
+    public void testMeasureInPlace() {
+        mWriter.beginMeasure();
+        mWriter.buildPrimitiveInPlace((short)0x8400, (short)5, (short)3);
+        mWriter.buildEncodedInPlace((short)8, (short)2);
+        Assert.assertEquals(7, mWriter.getCurrentLength());
+        Assert.assertEquals(5, mWriter.getNodeSize((byte)0));
+    }
+
+    @Test
+    public void testInPlaceReordered() {
+        // command data at offset 2: 01 02 03 04 05
+        for(int i = 0; i < 5; i++) {
+            tmp[2 + i] = (byte)(i + 1);
+        }
+        mWriter.begin((short)128);
+        mWriter.buildPrimitive((short)0x8500, tmp, (short)5, (short)2);
+        mWriter.primitiveByte((short)0x8600, (byte)0x06);
+        mWriter.buildPrimitive((short)0x8400, tmp, (short)2, (short)3);
+        mWriter.buildPrimitive((short)0x8700, tmp, (short)3, (short)1);
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x85, (byte)0x02, (byte)0x04, (byte)0x05,
+                (byte)0x86, (byte)0x01, (byte)0x06,
+                (byte)0x84, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+                (byte)0x87, (byte)0x01, (byte)0x02,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testMeasure() {
+        mWriter.beginMeasure();
+        mWriter.beginConstructed((short)0x6F00);
+        mWriter.primitiveBuffered((short)0x8400, ones, (short)0, (short)7);
+        mWriter.beginConstructed((short)0xA500);
+        mWriter.primitiveByte((short)0x8800, (byte)1);
+        mWriter.primitiveShort((short)0x9F6E, (short)2);
+        mWriter.buildPrimitive((short)0x5F2D, count, (short)0, (short)200);
+        mWriter.endConstructed();
+        mWriter.endConstructed();
+        Assert.assertTrue(mWriter.isMeasuring());
+        short measured = mWriter.getCurrentLength();
+        Assert.assertTrue(measured == 230);
+        Assert.assertTrue(mWriter.getNodeSize((byte)0) == 230);
+        Assert.assertTrue(mWriter.getNodeSize((byte)1) == 9);
+        Assert.assertTrue(mWriter.getNodeSize((byte)2) == 217);
+        Assert.assertTrue(mWriter.getNodeSize((byte)5) == 205);
+
+        byte[] big = new byte[256];
+        byte[] data = new byte[200];
+        mWriter.begin((short)256);
+        Assert.assertFalse(mWriter.isMeasuring());
+        mWriter.beginConstructed((short)0x6F00);
+        mWriter.primitiveBuffered((short)0x8400, ones, (short)0, (short)7);
+        mWriter.beginConstructed((short)0xA500);
+        mWriter.primitiveByte((short)0x8800, (byte)1);
+        mWriter.primitiveShort((short)0x9F6E, (short)2);
+        mWriter.buildPrimitive((short)0x5F2D, data, (short)0, (short)200);
+        mWriter.endConstructed();
+        mWriter.endConstructed();
+        short len = mWriter.finish(big, (short)0, (short)big.length);
+        Assert.assertTrue(len == measured);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testMeasureFinish() {
+        mWriter.beginMeasure();
+        mWriter.primitiveByte((short)0x8800, (byte)1);
+        mWriter.finish(tmp, (short)0, (short)tmp.length);
+    }
+
+    @Test
+    public void testTypedPrimitives() {
+        byte[] number = new byte[] { (byte)0x00, (byte)0x00, (byte)0x80, (byte)0x01 };
+        byte[] bits = new byte[] { (byte)0xA5, (byte)0xC0 };
+        mWriter.begin((short)128);
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.primitiveBoolean(BERTag.TYPE_BOOLEAN, true);
+        mWriter.primitiveInteger(BERTag.TYPE_INTEGER, (short)-1);
+        mWriter.primitiveInteger(BERTag.TYPE_INTEGER, (short)0x1234);
+        mWriter.primitiveInteger(BERTag.TYPE_INTEGER, number, (short)0, (short)4);
+        mWriter.primitiveUnsigned(BERTag.TYPE_INTEGER, number, (short)0, (short)4);
+        mWriter.primitiveBitString(BERTag.TYPE_BITSTRING, (byte)6, bits, (short)0, (short)2);
+        mWriter.endConstructed();
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+
+        byte[] expected = new byte[] {
+                (byte)0x30, (byte)0x19,
+                (byte)0x01, (byte)0x01, (byte)0xFF,
+                (byte)0x02, (byte)0x01, (byte)0xFF,
+                (byte)0x02, (byte)0x02, (byte)0x12, (byte)0x34,
+                (byte)0x02, (byte)0x03, (byte)0x00, (byte)0x80, (byte)0x01,
+                (byte)0x02, (byte)0x03, (byte)0x00, (byte)0x80, (byte)0x01,
+                (byte)0x03, (byte)0x03, (byte)0x06, (byte)0xA5, (byte)0xC0,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+
+        mWriter.beginMeasure();
+        mWriter.primitiveUnsigned(BERTag.TYPE_INTEGER, number, (short)0, (short)4);
+        Assert.assertTrue(mWriter.getCurrentLength() == 5);
+    }
+
+    @Test
+    public void testMeasurePrefixed() {
+        byte[] number = new byte[] { (byte)0x80, (byte)0x01 };
+        byte[] bits = new byte[] { (byte)0xA5, (byte)0xC0 };
+        mWriter.beginMeasure();
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.primitiveBitString(BERTag.TYPE_BITSTRING, (byte)6, bits, (short)0, (short)2);
+        mWriter.primitiveUnsigned(BERTag.TYPE_INTEGER, number, (short)0, (short)2);
+        mWriter.primitiveByte((short)0x8800, (byte)1);
+        mWriter.endConstructed();
+        Assert.assertEquals(4, mWriter.getCurrentCount());
+        Assert.assertEquals(15, mWriter.getCurrentLength());
+        Assert.assertEquals(15, mWriter.getNodeSize((byte)0));
+        Assert.assertEquals(5, mWriter.getNodeSize((byte)1));
+        Assert.assertEquals(5, mWriter.getNodeSize((byte)2));
+        Assert.assertEquals(3, mWriter.getNodeSize((byte)3));
+    }
+
+    @Test
+    public void testFinishPartPrefixed() {
+        byte[] number = new byte[] { (byte)0x80, (byte)0x01 };
+        byte[] bits = new byte[200];
+        mWriter.begin((short)512);
+        mWriter.beginConstructed(BERTag.TYPE_SEQUENCE);
+        mWriter.primitiveBitString(BERTag.TYPE_BITSTRING, (byte)3, bits, (short)0, (short)200);
+        mWriter.primitiveUnsigned(BERTag.TYPE_INTEGER, number, (short)0, (short)2);
+        mWriter.endConstructed();
+        Assert.assertEquals(3, mWriter.getCurrentCount());
+        byte[] whole = new byte[256];
+        short len = mWriter.finish(whole, (short)0, (short)whole.length);
+        Assert.assertEquals(214, len);
+        Assert.assertEquals((byte)0x82, whole[5]);
+        Assert.assertEquals((byte)0xC9, whole[7]);
+        Assert.assertEquals(0x03, whole[8]);
+        Assert.assertEquals(0x03, whole[210]);
+        Assert.assertEquals(0x00, whole[211]);
+        Assert.assertEquals((byte)0x80, whole[212]);
+        for(short chunk = 1; chunk <= 8; chunk++) {
+            byte[] pieces = new byte[256];
+            for(short skip = 0; skip < len; skip += chunk) {
+                short n = (short)Math.min(chunk, len - skip);
+                mWriter.finishPart(pieces, skip, skip, n);
+            }
+            Assert.assertArrayEquals(whole, pieces);
+        }
+    }
+
+    @Test
+    public void testInPlacePrefixed() {
+        byte[] bits = new byte[] { (byte)0xA5, (byte)0xC0 };
+        System.arraycopy(bits, 0, tmp, 4, 2);
+        mWriter.begin((short)128);
+        mWriter.primitiveByte((short)0x8800, (byte)1);
+        mWriter.primitiveBitString(BERTag.TYPE_BITSTRING, (byte)6, tmp, (short)4, (short)2);
+        short len = mWriter.finish(tmp, (short)0, (short)tmp.length);
+        byte[] expected = new byte[] {
+                (byte)0x88, (byte)0x01, (byte)0x01,
+                (byte)0x03, (byte)0x03, (byte)0x06, (byte)0xA5, (byte)0xC0,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testSendRemaining() {
+        Simulator sim = install();
+        // first part with Le=64
+        byte[] rsp = sim.transmitCommand(new byte[] {0x00, SendApplet.INS_LARGE, 0x00, 0x00, 0x40});
+        Assert.assertEquals(64 + 2, rsp.length);
+        Assert.assertEquals((short)0x6190, sw(rsp));
+        byte[] all = Arrays.copyOf(rsp, 64);
+        // remaining parts in response to GET RESPONSE
+        int rounds = 0;
+        while(sw(rsp) != ISO7816.SW_NO_ERROR) {
+            Assert.assertEquals(ISO7816.SW_BYTES_REMAINING_00, (short)(sw(rsp) & 0xFF00));
+            rsp = sim.transmitCommand(new byte[] {0x00, SendApplet.INS_GET_RESPONSE, 0x00, 0x00, 0x40});
+            all = append(all, rsp);
+            rounds++;
+        }
+        Assert.assertEquals(3, rounds);
+        Assert.assertArrayEquals(expectLarge(), all);
+    }
+
+    @Test
+    public void testSendInPlace() {
+        Simulator sim = install();
+        byte[] data = Arrays.copyOf(count, 16);
+        byte[] rsp = sim.transmitCommand(echoCommand(data, (byte)0x00));
+        Assert.assertEquals(ISO7816.SW_NO_ERROR, sw(rsp));
+        Assert.assertArrayEquals(expectEcho(data), Arrays.copyOf(rsp, rsp.length - 2));
+    }
+
+    @Test
+    public void testSendRelocated() {
+        Simulator sim = install();
+        byte[] data = Arrays.copyOf(count, 100);
+        // Le too small, so the command data must be moved out of the APDU buffer
+        byte[] rsp = sim.transmitCommand(echoCommand(data, (byte)0x20));
+        Assert.assertEquals(32 + 2, rsp.length);
+        Assert.assertEquals((short)0x614D, sw(rsp));
+        byte[] all = Arrays.copyOf(rsp, 32);
+        rsp = sim.transmitCommand(new byte[] {0x00, SendApplet.INS_GET_RESPONSE, 0x00, 0x00, 0x4D});
+        Assert.assertEquals(ISO7816.SW_NO_ERROR, sw(rsp));
+        all = append(all, rsp);
+        Assert.assertArrayEquals(expectEcho(data), all);
+    }
+
+    /**
+     * Check that a writer holds no reference to a buffer
+     * <p/>
+     * Used in place of the applet firewall, which forbids storing global
+     * arrays such as the APDU buffer and is not enforced by the simulator.
+     * <p/>
+     */
+    static void assertNotReferenced(BERWriter writer, byte[] buf) {
+        try {
+            for(Field field : BERWriter.class.getDeclaredFields()) {
+                if(field.getType() == Object[].class) {
+                    field.setAccessible(true);
+                    for(Object o : (Object[])field.get(writer)) {
+                        if(o == buf) {
+                            throw new SecurityException("global array stored in " + field.getName());
+                        }
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Simulator install() {
+        byte[] aid = new byte[] {(byte)0xF0, 0x00, 0x00, 0x00, 0x01};
+        AID appletAID = new AID(aid, (short)0, (byte)aid.length);
+        Simulator sim = new Simulator();
+        sim.installApplet(appletAID, SendApplet.class);
+        sim.selectApplet(appletAID);
+        return sim;
+    }
+
+    private static short sw(byte[] rsp) {
+        return (short)(((rsp[rsp.length - 2] & 0xFF) << 8) | (rsp[rsp.length - 1] & 0xFF));
+    }
+
+    private static byte[] append(byte[] data, byte[] rsp) {
+        byte[] res = Arrays.copyOf(data, data.length + rsp.length - 2);
+        System.arraycopy(rsp, 0, res, data.length, rsp.length - 2);
+        return res;
+    }
+
+    private static byte[] echoCommand(byte[] data, byte le) {
+        byte[] cmd = new byte[5 + data.length + 1];
+        cmd[ISO7816.OFFSET_INS] = SendApplet.INS_ECHO;
+        cmd[ISO7816.OFFSET_LC] = (byte)data.length;
+        System.arraycopy(data, 0, cmd, ISO7816.OFFSET_CDATA, data.length);
+        cmd[cmd.length - 1] = le;
+        return cmd;
+    }
+
+    private static byte[] expectLarge() {
+        BERWriter writer = new BERWriter((byte)8, (byte)4, (short)16);
+        SendApplet.buildLarge(writer);
+        byte[] buf = new byte[512];
+        short len = writer.finish(buf, (short)0, (short)buf.length);
+        Assert.assertEquals(208, len);
+        return Arrays.copyOf(buf, len);
+    }
+
+    private static byte[] expectEcho(byte[] data) {
+        BERWriter writer = new BERWriter((byte)8, (byte)4, (short)16);
+        SendApplet.buildEcho(writer, data, (short)0, (short)data.length);
+        byte[] buf = new byte[512];
+        short len = writer.finish(buf, (short)0, (short)buf.length);
+        return Arrays.copyOf(buf, len);
+    }
+
+    /** Applet sending responses with finishAndSend() and sendRemaining() */
+    public static class SendApplet extends Applet {
+
+        static final byte INS_LARGE = 0x01;
+        static final byte INS_ECHO = 0x02;
+        static final byte INS_GET_RESPONSE = (byte)0xC0;
+
+        static final byte[] LARGE = new byte[200];
+        static final byte[] TRAILER = new byte[] {(byte)0xAA, (byte)0xBB, (byte)0xCC};
+
+        static {
+            for(int i = 0; i < LARGE.length; i++) {
+                LARGE[i] = (byte)(i * 7);
+            }
+        }
+
+        final BERWriter mWriter = new BERWriter((byte)8, (byte)4, (short)256, JCSystem.CLEAR_ON_DESELECT);
+
+        public static void install(byte[] buf, short off, byte len) {
+            new SendApplet().register();
+        }
+
+        static void buildLarge(BERWriter writer) {
+            writer.begin((short)256);
+            writer.beginConstructed((short)0x6F00);
+            writer.buildPrimitive((short)0x8400, LARGE, (short)0, (short)LARGE.length);
+            writer.endConstructed();
+        }
+
+        static void buildEcho(BERWriter writer, byte[] buf, short off, short len) {
+            writer.begin((short)256);
+            writer.beginConstructed((short)0x6F00);
+            writer.buildPrimitive((short)0x8400, buf, off, len);
+            writer.buildPrimitive((short)0x8500, TRAILER, (short)0, (short)TRAILER.length);
+            writer.endConstructed();
+        }
+
+        static void buildEchoInPlace(BERWriter writer, short off, short len) {
+            writer.begin((short)256);
+            writer.beginConstructed((short)0x6F00);
+            writer.buildPrimitiveInPlace((short)0x8400, off, len);
+            writer.buildPrimitive((short)0x8500, TRAILER, (short)0, (short)TRAILER.length);
+            writer.endConstructed();
+        }
+
+        public void process(APDU apdu) {
+            if(selectingApplet()) {
+                return;
+            }
+            byte[] buf = apdu.getBuffer();
+            switch(buf[ISO7816.OFFSET_INS]) {
+                case INS_LARGE:
+                    buildLarge(mWriter);
+                    mWriter.finishAndSend(apdu);
+                    break;
+                case INS_ECHO:
+                    short len = apdu.setIncomingAndReceive();
+                    buildEchoInPlace(mWriter, ISO7816.OFFSET_CDATA, len);
+                    assertNotReferenced(mWriter, buf);
+                    mWriter.finishAndSend(apdu);
+                    break;
+                case INS_GET_RESPONSE:
+                    mWriter.sendRemaining(apdu);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+        }
+
+    }
+
 }
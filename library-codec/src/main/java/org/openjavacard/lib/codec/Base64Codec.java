@@ -1,4 +1,563 @@
 package org.openjavacard.lib.codec;
 
-public class Base64Codec {
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Base64 encoder and decoder (RFC 4648)
+ * <p/>
+ * Supports the standard and the URL-safe alphabet. Padding is
+ * optional on encoding and accepted but not required on decoding.
+ * Characters outside of the alphabet, including whitespace, are
+ * rejected. Bits after the last full byte are ignored.
+ * <p/>
+ * Whole groups are decoded through a lookup table, validating and
+ * decoding in the same pass. Decoding may be done in place, with
+ * output at or before the input in the same buffer.
+ * <p/>
+ * Streaming encode and decode carry the bits of at most 3 bytes in
+ * transient state, so data may be processed in chunks of any length,
+ * for example straight from a sequence of command APDUs. After an
+ * error the affected stream must be reset.
+ * <p/>
+ */
+public class Base64Codec implements Encoder, Decoder {
+
+    /** Padding character */
+    private static final byte PAD = 0x3D;
+    /** Decoded value of the padding character */
+    private static final byte PAD_VALUE = -2;
+
+    private static final byte SEXTET = 0x3F;
+
+    /** Standard alphabet */
+    private static final byte[] ENCODE = {
+            0x41, 0x42, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4A, 0x4B, 0x4C, 0x4D, 0x4E, 0x4F, 0x50,
+            0x51, 0x52, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66,
+            0x67, 0x68, 0x69, 0x6A, 0x6B, 0x6C, 0x6D, 0x6E, 0x6F, 0x70, 0x71, 0x72, 0x73, 0x74, 0x75, 0x76,
+            0x77, 0x78, 0x79, 0x7A, 0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x2B, 0x2F
+    };
+
+    /** URL-safe alphabet */
+    private static final byte[] ENCODE_URL = {
+            0x41, 0x42, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4A, 0x4B, 0x4C, 0x4D, 0x4E, 0x4F, 0x50,
+            0x51, 0x52, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66,
+            0x67, 0x68, 0x69, 0x6A, 0x6B, 0x6C, 0x6D, 0x6E, 0x6F, 0x70, 0x71, 0x72, 0x73, 0x74, 0x75, 0x76,
+            0x77, 0x78, 0x79, 0x7A, 0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x2D, 0x5F
+    };
+
+    /** Values of ASCII characters in the standard alphabet, -1 if invalid, -2 for padding */
+    private static final byte[] DECODE = {
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1, -1, 63,
+            52, 53, 54, 55, 56, 57, 58, 59, 60, 61, -1, -1, -1, -2, -1, -1,
+            -1,  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14,
+            15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, -1, -1, -1, -1, -1,
+            -1, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40,
+            41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51, -1, -1, -1, -1, -1
+    };
+
+    /** Values of ASCII characters in the URL-safe alphabet, -1 if invalid, -2 for padding */
+    private static final byte[] DECODE_URL = {
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1,
+            52, 53, 54, 55, 56, 57, 58, 59, 60, 61, -1, -1, -1, -2, -1, -1,
+            -1,  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14,
+            15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, -1, -1, -1, -1, 63,
+            -1, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40,
+            41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51, -1, -1, -1, -1, -1
+    };
+
+    /** Alphabet for encoding */
+    private final byte[] mEncode;
+    /** Table for decoding */
+    private final byte[] mDecode;
+    /** True if encoding should pad */
+    private final boolean mPad;
+
+    /** Transient state for streaming */
+    private final short[] mVars;
+    /** Number of state variables */
+    private static final byte NUM_VAR = 6;
+    /** Variable: encoder, bits not yet encoded */
+    private static final byte VAR_ENC_BITS = 0;
+    /** Variable: encoder, number of bits not yet encoded (0, 2 or 4) */
+    private static final byte VAR_ENC_NBITS = 1;
+    /** Variable: decoder, bits not yet decoded */
+    private static final byte VAR_DEC_BITS = 2;
+    /** Variable: decoder, number of bits not yet decoded (0, 2, 4 or 6) */
+    private static final byte VAR_DEC_NBITS = 3;
+    /** Variable: decoder, position within the current group */
+    private static final byte VAR_DEC_QUAD = 4;
+    /** Variable: decoder, number of padding characters seen */
+    private static final byte VAR_DEC_PADS = 5;
+
+    /**
+     * Construct a codec for standard base64 with padding
+     */
+    public Base64Codec() {
+        this(false, true, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    /**
+     * Construct a codec
+     * @param url true to use the URL-safe alphabet
+     * @param pad true to pad when encoding
+     * @param clearOn for transient state
+     */
+    public Base64Codec(boolean url, boolean pad, byte clearOn) {
+        mEncode = url ? ENCODE_URL : ENCODE;
+        mDecode = url ? DECODE_URL : DECODE;
+        mPad = pad;
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
+    }
+
+    /**
+     * Compute the output length of encode()
+     * <p/>
+     * Unlike getEncodeLength() this ignores the stream.
+     * <p/>
+     * @param inLen length of input
+     * @return length of output
+     */
+    public short getOneShotEncodedLength(short inLen) {
+        return encodedLength((short)0, inLen, true);
+    }
+
+    /**
+     * Compute the output length of decode()
+     * <p/>
+     * Unlike getDecodeLength() this ignores the stream.
+     * Input is assumed to be valid.
+     * <p/>
+     * @return length of output
+     */
+    public short getOneShotDecodedLength(byte[] inBuf, short inOff, short inLen) {
+        return decodedLength((short)0, countData(inBuf, inOff, inLen));
+    }
+
+    public short getEncodeLength(byte[] inBuf, short inOff, short inLen, boolean last) {
+        return encodedLength((short)(mVars[VAR_ENC_NBITS] >> 1), inLen, last);
+    }
+
+    public short getDecodeLength(byte[] inBuf, short inOff, short inLen, boolean last) {
+        return decodedLength(mVars[VAR_DEC_NBITS], countData(inBuf, inOff, inLen));
+    }
+
+    /**
+     * Encode data
+     * <p/>
+     * Output must not overlap the input.
+     * <p/>
+     * @return length of output
+     */
+    public short encode(byte[] inBuf, short inOff, short inLen,
+                        byte[] outBuf, short outOff, short outMaxLen) {
+        short outReq = encodedLength((short)0, inLen, true);
+        if(outReq > outMaxLen) {
+            error();
+        }
+        byte[] table = mEncode;
+        short groups = (short)(inLen / 3);
+        encodeGroups(table, inBuf, inOff, groups, outBuf, outOff);
+        short in = (short)(inOff + groups * 3);
+        short out = (short)(outOff + groups * 4);
+        short rem = (short)(inLen - groups * 3);
+        if(rem != 0) {
+            short b0 = (short)(inBuf[in] & 0xFF);
+            short b1 = 0;
+            if(rem == 2) {
+                b1 = (short)(inBuf[(short)(in + 1)] & 0xFF);
+            }
+            outBuf[out++] = table[b0 >> 2];
+            outBuf[out++] = table[((b0 << 4) | (b1 >> 4)) & SEXTET];
+            if(rem == 2) {
+                outBuf[out++] = table[(b1 << 2) & SEXTET];
+            }
+            if(mPad) {
+                out = pad(outBuf, out, rem);
+            }
+        }
+        return outReq;
+    }
+
+    /**
+     * Reset streaming encode
+     */
+    public void encodeReset() {
+        mVars[VAR_ENC_BITS] = 0;
+        mVars[VAR_ENC_NBITS] = 0;
+    }
+
+    /**
+     * Encode a chunk of data
+     * @return length of output
+     */
+    public short encodeUpdate(byte[] inBuf, short inOff, short inLen,
+                              byte[] outBuf, short outOff, short outMaxLen) {
+        return encodeStream(inBuf, inOff, inLen, outBuf, outOff, outMaxLen, false);
+    }
+
+    /**
+     * Encode the last chunk of data
+     * <p/>
+     * Flushes remaining bits and pads. Resets the stream.
+     * <p/>
+     * @return length of output
+     */
+    public short encodeFinal(byte[] inBuf, short inOff, short inLen,
+                             byte[] outBuf, short outOff, short outMaxLen) {
+        return encodeStream(inBuf, inOff, inLen, outBuf, outOff, outMaxLen, true);
+    }
+
+    /**
+     * Decode data
+     * <p/>
+     * Output may overlap the input if it starts at or before it.
+     * Invalid input causes an exception, leaving partial output.
+     * <p/>
+     * @return length of output
+     */
+    public short decode(byte[] inBuf, short inOff, short inLen,
+                        byte[] outBuf, short outOff, short outMaxLen) {
+        short count = countData(inBuf, inOff, inLen);
+        short pads = (short)(inLen - count);
+        short rem = (short)(count & 3);
+        // padding must complete a group and may not exceed 2 characters
+        if(pads != 0 && (pads > 2 || ((short)(count + pads) & 3) != 0)) {
+            error();
+        }
+        if(rem == 1) {
+            error();
+        }
+        short outReq = decodedLength((short)0, count);
+        if(outReq > outMaxLen) {
+            error();
+        }
+        byte[] table = mDecode;
+        short groups = (short)(count >> 2);
+        if(decodeGroups(table, inBuf, inOff, groups, outBuf, outOff) != groups) {
+            error();
+        }
+        if(rem != 0) {
+            short in = (short)(inOff + groups * 4);
+            short out = (short)(outOff + groups * 3);
+            byte v0 = value(table, inBuf[in]);
+            byte v1 = value(table, inBuf[(short)(in + 1)]);
+            byte v2 = 0;
+            if(rem == 3) {
+                v2 = value(table, inBuf[(short)(in + 2)]);
+            }
+            outBuf[out++] = (byte)((v0 << 2) | (v1 >> 4));
+            if(rem == 3) {
+                outBuf[out] = (byte)((v1 << 4) | (v2 >> 2));
+            }
+        }
+        return outReq;
+    }
+
+    /**
+     * Decode data in place
+     * @return length of output, starting at off
+     */
+    public short decodeInPlace(byte[] buf, short off, short len) {
+        return decode(buf, off, len, buf, off, len);
+    }
+
+    /**
+     * Reset streaming decode
+     */
+    public void decodeReset() {
+        mVars[VAR_DEC_BITS] = 0;
+        mVars[VAR_DEC_NBITS] = 0;
+        mVars[VAR_DEC_QUAD] = 0;
+        mVars[VAR_DEC_PADS] = 0;
+    }
+
+    /**
+     * Decode a chunk of data
+     * <p/>
+     * Output may overlap the input if it starts at or before it.
+     * <p/>
+     * @return length of output
+     */
+    public short decodeUpdate(byte[] inBuf, short inOff, short inLen,
+                              byte[] outBuf, short outOff, short outMaxLen) {
+        return decodeStream(inBuf, inOff, inLen, outBuf, outOff, outMaxLen, false);
+    }
+
+    /**
+     * Decode the last chunk of data
+     * <p/>
+     * Fails if the data is incomplete. Resets the stream.
+     * <p/>
+     * @return length of output
+     */
+    public short decodeFinal(byte[] inBuf, short inOff, short inLen,
+                             byte[] outBuf, short outOff, short outMaxLen) {
+        return decodeStream(inBuf, inOff, inLen, outBuf, outOff, outMaxLen, true);
+    }
+
+    /**
+     * Internal: streaming encode
+     */
+    private short encodeStream(byte[] inBuf, short inOff, short inLen,
+                               byte[] outBuf, short outOff, short outMaxLen,
+                               boolean last) {
+        short[] vars = mVars;
+        byte[] table = mEncode;
+        short bits = vars[VAR_ENC_BITS];
+        short nbits = vars[VAR_ENC_NBITS];
+        short outReq = encodedLength((short)(nbits >> 1), inLen, last);
+        if(outReq > outMaxLen) {
+            error();
+        }
+        short in = inOff;
+        short out = outOff;
+        short end = (short)(inOff + inLen);
+        while(in < end) {
+            // encode whole groups when aligned
+            short count = (short)(end - in);
+            if(nbits == 0 && count >= 3) {
+                short groups = (short)(count / 3);
+                encodeGroups(table, inBuf, in, groups, outBuf, out);
+                in += (short)(groups * 3);
+                out += (short)(groups * 4);
+                continue;
+            }
+            // encode byte by byte
+            bits = (short)((bits << 8) | (inBuf[in++] & 0xFF));
+            nbits += 8;
+            while(nbits >= 6) {
+                nbits -= 6;
+                outBuf[out++] = table[(bits >> nbits) & SEXTET];
+            }
+            bits &= (short)((1 << nbits) - 1);
+        }
+        if(last) {
+            if(nbits != 0) {
+                outBuf[out++] = table[(bits << (6 - nbits)) & SEXTET];
+                if(mPad) {
+                    out = pad(outBuf, out, (short)(nbits >> 1));
+                }
+            }
+            bits = 0;
+            nbits = 0;
+        }
+        vars[VAR_ENC_BITS] = bits;
+        vars[VAR_ENC_NBITS] = nbits;
+        return outReq;
+    }
+
+    /**
+     * Internal: streaming decode
+     */
+    private short decodeStream(byte[] inBuf, short inOff, short inLen,
+                               byte[] outBuf, short outOff, short outMaxLen,
+                               boolean last) {
+        short[] vars = mVars;
+        byte[] table = mDecode;
+        short bits = vars[VAR_DEC_BITS];
+        short nbits = vars[VAR_DEC_NBITS];
+        short quad = vars[VAR_DEC_QUAD];
+        short pads = vars[VAR_DEC_PADS];
+        short outReq = decodedLength(nbits, countData(inBuf, inOff, inLen));
+        if(outReq > outMaxLen) {
+            error();
+        }
+        short in = inOff;
+        short out = outOff;
+        short end = (short)(inOff + inLen);
+        while(in < end) {
+            // decode whole groups when aligned
+            if(quad == 0 && pads == 0) {
+                short groups = (short)((short)(end - in) >> 2);
+                short done = decodeGroups(table, inBuf, in, groups, outBuf, out);
+                if(done != 0) {
+                    in += (short)(done * 4);
+                    out += (short)(done * 3);
+                    continue;
+                }
+            }
+            // decode character by character
+            byte c = inBuf[in++];
+            byte v = -1;
+            if(c >= 0) {
+                v = table[c];
+            }
+            if(v == PAD_VALUE) {
+                if(quad < 2) {
+                    error();
+                }
+                pads++;
+                quad = (short)((quad + 1) & 3);
+                continue;
+            }
+            if(v < 0 || pads != 0) {
+                error();
+            }
+            bits = (short)((bits << 6) | v);
+            nbits += 6;
+            quad = (short)((quad + 1) & 3);
+            if(nbits >= 8) {
+                nbits -= 8;
+                outBuf[out++] = (byte)(bits >> nbits);
+                bits &= (short)((1 << nbits) - 1);
+            }
+        }
+        if(last) {
+            // padded data must end on a group, unpadded data on a byte
+            if(pads != 0 ? quad != 0 : quad == 1) {
+                error();
+            }
+            bits = 0;
+            nbits = 0;
+            quad = 0;
+            pads = 0;
+        }
+        vars[VAR_DEC_BITS] = bits;
+        vars[VAR_DEC_NBITS] = nbits;
+        vars[VAR_DEC_QUAD] = quad;
+        vars[VAR_DEC_PADS] = pads;
+        return outReq;
+    }
+
+    /**
+     * Internal: compute length of encoded output
+     * @param pending number of input bytes not yet encoded (0-2)
+     * @param inLen length of input
+     * @param last true if flushing and padding
+     * @return length of output
+     */
+    private short encodedLength(short pending, short inLen, boolean last) {
+        if(inLen < 0) {
+            error();
+        }
+        short n = (short)(pending + inLen);
+        if(n < 0) {
+            error();
+        }
+        short rem = (short)(n % 3);
+        // characters produced so far for the pending bytes equal their number
+        short len = (short)((short)(n / 3) * 4 + (short)(rem * 4) / 3 - pending);
+        if(last && rem != 0) {
+            len++;
+            if(mPad) {
+                len += (short)(3 - rem);
+            }
+        }
+        if(len < 0) {
+            error();
+        }
+        return len;
+    }
+
+    /**
+     * Internal: compute length of decoded output
+     * @param nbits number of bits not yet decoded
+     * @param count number of data characters
+     * @return length of output
+     */
+    private static short decodedLength(short nbits, short count) {
+        return (short)((short)(count >> 2) * 3 + (short)(nbits + (count & 3) * 6) / 8);
+    }
+
+    /**
+     * Internal: count data characters, excluding trailing padding
+     */
+    private static short countData(byte[] inBuf, short inOff, short inLen) {
+        if(inLen < 0) {
+            error();
+        }
+        short end = (short)(inOff + inLen);
+        while(end > inOff && inBuf[(short)(end - 1)] == PAD) {
+            end--;
+        }
+        return (short)(end - inOff);
+    }
+
+    /**
+     * Internal: encode whole groups of 3 bytes
+     */
+    private static void encodeGroups(byte[] table, byte[] inBuf, short inOff, short groups,
+                                     byte[] outBuf, short outOff) {
+        short inEnd = (short)(inOff + groups * 3);
+        for(; inOff < inEnd; inOff += 3) {
+            short b0 = (short)(inBuf[inOff] & 0xFF);
+            short b1 = (short)(inBuf[(short)(inOff + 1)] & 0xFF);
+            short b2 = (short)(inBuf[(short)(inOff + 2)] & 0xFF);
+            outBuf[outOff++] = table[b0 >> 2];
+            outBuf[outOff++] = table[((b0 << 4) | (b1 >> 4)) & SEXTET];
+            outBuf[outOff++] = table[((b1 << 2) | (b2 >> 6)) & SEXTET];
+            outBuf[outOff++] = table[b2 & SEXTET];
+        }
+    }
+
+    /**
+     * Internal: decode and validate whole groups of 4 characters
+     * <p/>
+     * Stops before the first group containing padding or invalid characters.
+     * <p/>
+     * @return number of groups decoded
+     */
+    private static short decodeGroups(byte[] table, byte[] inBuf, short inOff, short groups,
+                                      byte[] outBuf, short outOff) {
+        short done = 0;
+        for(; done < groups; done++) {
+            byte c0 = inBuf[inOff];
+            byte c1 = inBuf[(short)(inOff + 1)];
+            byte c2 = inBuf[(short)(inOff + 2)];
+            byte c3 = inBuf[(short)(inOff + 3)];
+            if((c0 | c1 | c2 | c3) < 0) {
+                break;
+            }
+            byte v0 = table[c0];
+            byte v1 = table[c1];
+            byte v2 = table[c2];
+            byte v3 = table[c3];
+            if((v0 | v1 | v2 | v3) < 0) {
+                break;
+            }
+            outBuf[outOff++] = (byte)((v0 << 2) | (v1 >> 4));
+            outBuf[outOff++] = (byte)((v1 << 4) | (v2 >> 2));
+            outBuf[outOff++] = (byte)((v2 << 6) | v3);
+            inOff += 4;
+        }
+        return done;
+    }
+
+    /**
+     * Internal: decode and validate one data character
+     */
+    private static byte value(byte[] table, byte c) {
+        byte v = -1;
+        if(c >= 0) {
+            v = table[c];
+        }
+        if(v < 0) {
+            error();
+        }
+        return v;
+    }
+
+    /**
+     * Internal: pad after a partial group
+     * @param rem number of bytes in the group (1 or 2)
+     * @return offset after padding
+     */
+    private static short pad(byte[] outBuf, short outOff, short rem) {
+        outBuf[outOff++] = PAD;
+        if(rem == 1) {
+            outBuf[outOff++] = PAD;
+        }
+        return outOff;
+    }
+
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
 }
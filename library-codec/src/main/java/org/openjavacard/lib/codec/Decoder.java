@@ -1,8 +1,64 @@
 package org.openjavacard.lib.codec;
 
+/**
+ * Interface for decoders
+ * <p/>
+ * Decoders can be used in one shot using decode() or as a stream
+ * using decodeUpdate() and decodeFinal(), similar to a Cipher.
+ * Streaming state is kept in a fixed-size transient array allocated
+ * on construction, so decoding never allocates. One-shot decoding
+ * does not affect the stream.
+ * <p/>
+ * Decoders must support decoding in place, with output starting
+ * at or before the input in the same buffer. This allows decoding
+ * inside the APDU buffer and chaining without intermediate copies.
+ * <p/>
+ * Output lengths can be predicted exactly before decoding, assuming
+ * valid input. All methods check the output length against the given
+ * maximum before writing any output. Invalid input causes an exception
+ * and may leave partial output, after which the stream must be reset.
+ * <p/>
+ * @see org.openjavacard.lib.codec.DecoderChain
+ */
 public interface Decoder {
 
+    /**
+     * Decode data in one shot
+     * @return length of output
+     */
     short decode(byte[] inBuf, short inOff, short inLen,
                  byte[] outBuf, short outOff, short outMaxLen);
 
+    /**
+     * Reset the stream, dropping pending input
+     */
+    void decodeReset();
+
+    /**
+     * Decode a chunk of data
+     * <p/>
+     * Input that can not be decoded yet is kept as stream state.
+     * <p/>
+     * @return length of output
+     */
+    short decodeUpdate(byte[] inBuf, short inOff, short inLen,
+                       byte[] outBuf, short outOff, short outMaxLen);
+
+    /**
+     * Decode the last chunk of data
+     * <p/>
+     * Fails on incomplete input and resets the stream.
+     * <p/>
+     * @return length of output
+     */
+    short decodeFinal(byte[] inBuf, short inOff, short inLen,
+                      byte[] outBuf, short outOff, short outMaxLen);
+
+    /**
+     * Predict the output length of the next decodeUpdate() or decodeFinal()
+     * @param last true to predict for decodeFinal()
+     * @return exact length of output, or an upper bound for chains
+     */
+    short getDecodeLength(byte[] inBuf, short inOff, short inLen, boolean last);
+
 }
@@ -0,0 +1,55 @@
+package org.openjavacard.lib.codec;
+
+/**
+ * Chain of two decoders
+ * <p/>
+ * Output of the first decoder is decoded again by the second one,
+ * in place in the output buffer. Stream state is kept by the chained
+ * decoders, so chunks of any size can be passed through the chain,
+ * for example base64 containing hex digits straight from a sequence
+ * of command APDUs. Chains can be nested for more stages.
+ * <p/>
+ * Output length prediction is exact for the first decoder only and an
+ * upper bound for the chain, because decoders do not grow their data.
+ * <p/>
+ */
+public class DecoderChain implements Decoder {
+
+    /** Decoder applied first */
+    private final Decoder mFirst;
+    /** Decoder applied to the output of the first */
+    private final Decoder mSecond;
+
+    public DecoderChain(Decoder first, Decoder second) {
+        mFirst = first;
+        mSecond = second;
+    }
+
+    public short decode(byte[] inBuf, short inOff, short inLen,
+                        byte[] outBuf, short outOff, short outMaxLen) {
+        short len = mFirst.decode(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+        return mSecond.decode(outBuf, outOff, len, outBuf, outOff, len);
+    }
+
+    public void decodeReset() {
+        mFirst.decodeReset();
+        mSecond.decodeReset();
+    }
+
+    public short decodeUpdate(byte[] inBuf, short inOff, short inLen,
+                              byte[] outBuf, short outOff, short outMaxLen) {
+        short len = mFirst.decodeUpdate(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+        return mSecond.decodeUpdate(outBuf, outOff, len, outBuf, outOff, len);
+    }
+
+    public short decodeFinal(byte[] inBuf, short inOff, short inLen,
+                             byte[] outBuf, short outOff, short outMaxLen) {
+        short len = mFirst.decodeFinal(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+        return mSecond.decodeFinal(outBuf, outOff, len, outBuf, outOff, len);
+    }
+
+    public short getDecodeLength(byte[] inBuf, short inOff, short inLen, boolean last) {
+        return mFirst.getDecodeLength(inBuf, inOff, inLen, last);
+    }
+
+}
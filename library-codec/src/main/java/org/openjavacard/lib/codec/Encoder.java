@@ -1,8 +1,58 @@
 package org.openjavacard.lib.codec;
 
+/**
+ * Interface for encoders
+ * <p/>
+ * Encoders can be used in one shot using encode() or as a stream
+ * using encodeUpdate() and encodeFinal(), similar to a Cipher.
+ * Streaming state is kept in a fixed-size transient array allocated
+ * on construction, so encoding never allocates. One-shot encoding
+ * does not affect the stream.
+ * <p/>
+ * Output lengths can be predicted exactly before encoding.
+ * All methods check the output length against the given maximum
+ * before writing any output.
+ * <p/>
+ */
 public interface Encoder {
 
+    /**
+     * Encode data in one shot
+     * @return length of output
+     */
     short encode(byte[] inBuf, short inOff, short inLen,
                  byte[] outBuf, short outOff, short outMaxLen);
 
+    /**
+     * Reset the stream, dropping pending input
+     */
+    void encodeReset();
+
+    /**
+     * Encode a chunk of data
+     * <p/>
+     * Input that can not be encoded yet is kept as stream state.
+     * <p/>
+     * @return length of output
+     */
+    short encodeUpdate(byte[] inBuf, short inOff, short inLen,
+                       byte[] outBuf, short outOff, short outMaxLen);
+
+    /**
+     * Encode the last chunk of data
+     * <p/>
+     * Flushes pending input and resets the stream.
+     * <p/>
+     * @return length of output
+     */
+    short encodeFinal(byte[] inBuf, short inOff, short inLen,
+                      byte[] outBuf, short outOff, short outMaxLen);
+
+    /**
+     * Predict the output length of the next encodeUpdate() or encodeFinal()
+     * @param last true to predict for encodeFinal()
+     * @return exact length of output
+     */
+    short getEncodeLength(byte[] inBuf, short inOff, short inLen, boolean last);
+
 }
@@ -2,77 +2,288 @@ package org.openjavacard.lib.codec;
 
 import javacard.framework.ISO7816;
 import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 
-public class HexCodec {
+/**
+ * Hexadecimal encoder and decoder
+ * <p/>
+ * Encodes to lower case and decodes both cases. Digits are
+ * validated and decoded in the same pass using a lookup table,
+ * so invalid input is detected without a separate verify().
+ * <p/>
+ * Decoding may be done in place, with output at or before the
+ * input in the same buffer, as when decoding the APDU buffer.
+ * Encoding may be done in place with output at or after the input.
+ * <p/>
+ * Streaming encode is stateless. Streaming decode carries a dangling
+ * nibble across chunks, so hex data may be decoded in pieces of any length.
+ * <p/>
+ */
+public class HexCodec implements Encoder, Decoder {
 
     private static final byte NIBBLE = 0xF;
 
-    private final byte[] mEncode;
+    /** Digits for encoding */
+    private static final byte[] ENCODE = {
+            0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37,
+            0x38, 0x39, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66
+    };
+
+    /** Values of ASCII characters, -1 for non-digits */
+    private static final byte[] DECODE = {
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+             0,  1,  2,  3,  4,  5,  6,  7,  8,  9, -1, -1, -1, -1, -1, -1,
+            -1, 10, 11, 12, 13, 14, 15, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, 10, 11, 12, 13, 14, 15, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1
+    };
+
+    /** Transient state for streaming */
+    private final short[] mVars;
+    /** Number of state variables */
+    private static final byte NUM_VAR = 1;
+    /** Variable: value of dangling nibble plus one, 0 if none */
+    private static final byte VAR_NIBBLE = 0;
 
     public HexCodec() {
-        mEncode = new byte[] { 0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37,
-                               0x38, 0x39, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66};
+        this(JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    public HexCodec(byte clearOn) {
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
     }
 
+    /**
+     * Encode data to hex
+     * <p/>
+     * Works backwards so that the output may overlap
+     * the input if it starts at or after it.
+     * <p/>
+     * @return length of output
+     */
     public short encode(byte[] inBuf, short inOff, short inLen,
                         byte[] outBuf, short outOff, short outMaxLen) {
+        if(inLen < 0 || inLen > (short)(outMaxLen / 2)) {
+            error();
+        }
         short outReq = (short)(inLen * 2);
-        if(outReq < inLen || outReq < outMaxLen) {
+        if(inBuf == outBuf && outOff < inOff && (short)(outOff + outReq) > inOff) {
             error();
         }
-        short inEnd = (short)(inOff + inLen);
-        for(; inOff < inEnd; inOff++) {
-            byte b = inBuf[inOff];
-            outBuf[outOff] = mEncode[(b >> 4) & NIBBLE];
-            outBuf[outOff+1] = mEncode[b & NIBBLE];
-            outOff += 2;
+        short in = (short)(inOff + inLen);
+        short out = (short)(outOff + outReq);
+        while(in > inOff) {
+            byte b = inBuf[--in];
+            outBuf[--out] = ENCODE[b & NIBBLE];
+            outBuf[--out] = ENCODE[(b >> 4) & NIBBLE];
         }
         return outReq;
     }
 
+    /**
+     * Reset streaming encode
+     * <p/>
+     * Encoding is stateless, so this does nothing.
+     * <p/>
+     */
+    public void encodeReset() {
+    }
+
+    /**
+     * Encode a chunk of data
+     * @return length of output
+     */
+    public short encodeUpdate(byte[] inBuf, short inOff, short inLen,
+                              byte[] outBuf, short outOff, short outMaxLen) {
+        return encode(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+    }
+
+    /**
+     * Encode the last chunk of data
+     * @return length of output
+     */
+    public short encodeFinal(byte[] inBuf, short inOff, short inLen,
+                             byte[] outBuf, short outOff, short outMaxLen) {
+        return encode(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+    }
+
+    public short getEncodeLength(byte[] inBuf, short inOff, short inLen, boolean last) {
+        if(inLen < 0 || inLen > 0x3FFF) {
+            error();
+        }
+        return (short)(inLen * 2);
+    }
+
+    /**
+     * Verify hex data
+     * @return number of valid leading digits
+     */
     public short verify(byte[] inBuf, short inOff, short inLen) {
         short end = (short)(inOff + inLen);
-        for(short i = inOff; i < end; i++) {
+        short i = inOff;
+        for(; i < end; i++) {
+            if(!isxdigit(inBuf[i])) {
+                break;
+            }
         }
-        return 0;
+        return (short)(i - inOff);
     }
 
+    /**
+     * Decode hex data
+     * <p/>
+     * Output may overlap the input if it starts at or before it.
+     * Invalid input causes an exception, leaving partial output.
+     * <p/>
+     * @return length of output
+     */
     public short decode(byte[] inBuf, short inOff, short inLen,
                         byte[] outBuf, short outOff, short outMaxLen) {
+        if(inLen < 0 || (inLen & 1) != 0) {
+            error();
+        }
         short outReq = (short)(inLen / 2);
-        if((inLen % 2) != 0) {
+        if(outReq > outMaxLen) {
             error();
         }
-        if(outReq < inLen || outReq > outMaxLen) {
+        decodePairs(inBuf, inOff, outBuf, outOff, outReq);
+        return outReq;
+    }
+
+    /**
+     * Decode hex data in place
+     * @return length of output, starting at off
+     */
+    public short decodeInPlace(byte[] buf, short off, short len) {
+        return decode(buf, off, len, buf, off, len);
+    }
+
+    /**
+     * Reset streaming decode
+     */
+    public void decodeReset() {
+        mVars[VAR_NIBBLE] = 0;
+    }
+
+    /**
+     * Decode a chunk of hex data
+     * <p/>
+     * Chunks may have odd length. A dangling digit is kept
+     * and combined with the first digit of the next chunk.
+     * <p/>
+     * @return length of output
+     */
+    public short decodeUpdate(byte[] inBuf, short inOff, short inLen,
+                              byte[] outBuf, short outOff, short outMaxLen) {
+        short[] vars = mVars;
+        short nibble = (short)(vars[VAR_NIBBLE] - 1);
+        short outReq = decodedLength(nibble, inLen);
+        if(outReq > outMaxLen) {
             error();
         }
-        short outEnd = (short)(outOff + outReq);
-        for(; outOff < outEnd; outOff++) {
-            byte h = inBuf[inOff];
-            byte l = inBuf[inOff+1];
-            outBuf[outOff] = (byte)((xdigit(h) << 4) | xdigit(l));
-            inOff += 2;
+        short in = inOff;
+        short out = outOff;
+        // complete the dangling byte
+        if(nibble >= 0 && inLen > 0) {
+            outBuf[out++] = (byte)((nibble << 4) | digit(inBuf[in++]));
+            nibble = -1;
+        }
+        // decode whole bytes
+        short pairs = (short)(outReq - (short)(out - outOff));
+        decodePairs(inBuf, in, outBuf, out, pairs);
+        in += (short)(pairs * 2);
+        // keep a dangling digit
+        if(in < (short)(inOff + inLen)) {
+            nibble = digit(inBuf[in]);
         }
+        vars[VAR_NIBBLE] = (short)(nibble + 1);
         return outReq;
     }
 
-    public static boolean isxdigit(byte c) {
-        return ((c >= 0x30) && (c <= 0x39))
-                || ((c >= 0x41) && (c <= 0x46))
-                || ((c >= 0x61) && (c <= 0x66));
+    /**
+     * Decode the last chunk of hex data
+     * <p/>
+     * Fails if a digit is left dangling. Resets the stream.
+     * <p/>
+     * @return length of output
+     */
+    public short decodeFinal(byte[] inBuf, short inOff, short inLen,
+                             byte[] outBuf, short outOff, short outMaxLen) {
+        short len = decodeUpdate(inBuf, inOff, inLen, outBuf, outOff, outMaxLen);
+        short nibble = mVars[VAR_NIBBLE];
+        mVars[VAR_NIBBLE] = 0;
+        if(nibble != 0) {
+            error();
+        }
+        return len;
     }
 
-    public static byte xdigit(byte c) {
-        if((c <= 0x30) && (c <= 0x39)) {
-            return (byte)(c - 0x30);
-        } else if ((c >= 0x41) && (c <= 0x46)) {
-            return (byte)(c + 10 - 0x41);
-        } else if ((c >= 0x61) && (c <= 0x66)) {
-            return (byte)(c + 10 - 0x61);
-        } else {
+    public short getDecodeLength(byte[] inBuf, short inOff, short inLen, boolean last) {
+        return decodedLength((short)(mVars[VAR_NIBBLE] - 1), inLen);
+    }
+
+    /**
+     * Internal: compute length of decoded output
+     * @param nibble dangling nibble or -1
+     * @param inLen length of input
+     * @return length of output
+     */
+    private static short decodedLength(short nibble, short inLen) {
+        if(inLen < 0) {
+            error();
+        }
+        short avail = inLen;
+        if(nibble >= 0) {
+            avail++;
+        }
+        return (short)((avail >> 1) & 0x7FFF);
+    }
+
+    /**
+     * Internal: decode and validate pairs of digits
+     */
+    private static void decodePairs(byte[] inBuf, short inOff,
+                                    byte[] outBuf, short outOff, short count) {
+        byte[] table = DECODE;
+        short outEnd = (short)(outOff + count);
+        for(; outOff < outEnd; outOff++) {
+            byte h = inBuf[inOff++];
+            byte l = inBuf[inOff++];
+            if((h | l) < 0) {
+                error();
+            }
+            byte hv = table[h];
+            byte lv = table[l];
+            if((hv | lv) < 0) {
+                error();
+            }
+            outBuf[outOff] = (byte)((hv << 4) | lv);
+        }
+    }
+
+    /**
+     * Internal: decode and validate one digit
+     */
+    private static byte digit(byte c) {
+        byte v = -1;
+        if(c >= 0) {
+            v = DECODE[c];
+        }
+        if(v < 0) {
             error();
-            return -1;
         }
+        return v;
+    }
+
+    public static boolean isxdigit(byte c) {
+        return c >= 0 && DECODE[c] >= 0;
+    }
+
+    public static byte xdigit(byte c) {
+        return digit(c);
     }
 
     private static void error() {
@@ -0,0 +1,248 @@
+package org.openjavacard.lib.codec;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class Base64CodecTest {
+
+    /** Test vectors from RFC 4648, section 10 */
+    static final String[][] VECTORS = new String[][] {
+            { "", "" },
+            { "f", "Zg==" },
+            { "fo", "Zm8=" },
+            { "foo", "Zm9v" },
+            { "foob", "Zm9vYg==" },
+            { "fooba", "Zm9vYmE=" },
+            { "foobar", "Zm9vYmFy" },
+    };
+
+    /** Data using the characters that differ between the alphabets */
+    static final byte[] SPECIAL = new byte[] {
+            (byte)0xFB, (byte)0xFF, (byte)0xBF, (byte)0xFF,
+    };
+
+    byte[] tmp;
+
+    Base64Codec mCodec;
+    Base64Codec mUnpadded;
+    Base64Codec mUrl;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[128];
+        mCodec = new Base64Codec();
+        mUnpadded = new Base64Codec(false, false, JCSystem.CLEAR_ON_DESELECT);
+        mUrl = new Base64Codec(true, false, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    static byte[] ascii(String s) {
+        return HexCodecTest.ascii(s);
+    }
+
+    static String unpad(String s) {
+        return s.replace("=", "");
+    }
+
+    private byte[] encode(Base64Codec codec, byte[] in) {
+        short len = codec.encode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        Assert.assertEquals(len, codec.getOneShotEncodedLength((short)in.length));
+        return Arrays.copyOf(tmp, len);
+    }
+
+    private byte[] decode(Base64Codec codec, byte[] in) {
+        short len = codec.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        Assert.assertEquals(len, codec.getOneShotDecodedLength(in, (short)0, (short)in.length));
+        return Arrays.copyOf(tmp, len);
+    }
+
+    @Test
+    public void testVectors() {
+        for(int i = 0; i < VECTORS.length; i++) {
+            byte[] data = ascii(VECTORS[i][0]);
+            byte[] padded = ascii(VECTORS[i][1]);
+            byte[] unpadded = ascii(unpad(VECTORS[i][1]));
+            Assert.assertArrayEquals(padded, encode(mCodec, data));
+            Assert.assertArrayEquals(unpadded, encode(mUnpadded, data));
+            // padding is optional on decoding
+            Assert.assertArrayEquals(data, decode(mCodec, padded));
+            Assert.assertArrayEquals(data, decode(mCodec, unpadded));
+            Assert.assertArrayEquals(data, decode(mUnpadded, padded));
+            Assert.assertArrayEquals(data, decode(mUrl, unpadded));
+        }
+    }
+
+    @Test
+    public void testAlphabets() {
+        Assert.assertArrayEquals(ascii("+/+//w=="), encode(mCodec, SPECIAL));
+        Assert.assertArrayEquals(ascii("-_-__w"), encode(mUrl, SPECIAL));
+        Assert.assertArrayEquals(SPECIAL, decode(mCodec, ascii("+/+//w==")));
+        Assert.assertArrayEquals(SPECIAL, decode(mUrl, ascii("-_-__w==")));
+        assertRejected(mCodec, "-_-_");
+        assertRejected(mUrl, "+/+/");
+    }
+
+    @Test
+    public void testRejected() {
+        assertRejected(mCodec, "QQ=");
+        assertRejected(mCodec, "QQ=A");
+        assertRejected(mCodec, "Q");
+        assertRejected(mCodec, "QUJDQ");
+        assertRejected(mCodec, "Q===");
+        assertRejected(mCodec, "====");
+        assertRejected(mCodec, "=");
+        assertRejected(mCodec, "QQ A");
+        assertRejected(mCodec, "QUJD\n");
+        assertRejected(mCodec, new byte[] { 'Q', 'Q', (byte)0xC3, 'A' });
+        assertRejected(mCodec, new byte[] { 'Q', (byte)0xFF });
+    }
+
+    private void assertRejected(Base64Codec codec, String in) {
+        assertRejected(codec, ascii(in));
+    }
+
+    private void assertRejected(Base64Codec codec, byte[] in) {
+        try {
+            codec.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+            Assert.fail("one-shot accepted " + Arrays.toString(in));
+        } catch (ISOException e) {
+            // expected
+        }
+        codec.decodeReset();
+        try {
+            codec.decodeFinal(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+            Assert.fail("stream accepted " + Arrays.toString(in));
+        } catch (ISOException e) {
+            // expected
+        }
+        codec.decodeReset();
+    }
+
+    @Test
+    public void testDecodeInPlace() {
+        byte[] buf = ascii("Zm9vYmFyZm9vYg==");
+        short len = mCodec.decodeInPlace(buf, (short)0, (short)buf.length);
+        Assert.assertArrayEquals(ascii("foobarfoob"), Arrays.copyOf(buf, len));
+        buf = ascii("xxZm9vYmE");
+        len = mCodec.decodeInPlace(buf, (short)2, (short)(buf.length - 2));
+        Assert.assertArrayEquals(ascii("fooba"), Arrays.copyOfRange(buf, 2, 2 + len));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testEncodeNoSpace() {
+        byte[] in = ascii("foob");
+        mCodec.encode(in, (short)0, (short)in.length, tmp, (short)0, (short)7);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testDecodeNoSpace() {
+        byte[] in = ascii("Zm9vYmE=");
+        mCodec.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)4);
+    }
+
+    @Test
+    public void testEncodeSplits() {
+        byte[] data = new byte[20];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i * 37 + 5);
+        }
+        Base64Codec[] codecs = new Base64Codec[] { mCodec, mUnpadded, mUrl };
+        for(int c = 0; c < codecs.length; c++) {
+            Base64Codec codec = codecs[c];
+            byte[] expected = encode(codec, data);
+            int n = data.length;
+            for(int a = 0; a <= n; a++) {
+                for(int b = a; b <= n; b++) {
+                    codec.encodeReset();
+                    short out = 0;
+                    out += encodeChunk(codec, data, 0, a, out, false);
+                    out += encodeChunk(codec, data, a, b - a, out, false);
+                    out += encodeChunk(codec, data, b, n - b, out, true);
+                    Assert.assertArrayEquals("split " + a + "/" + b, expected, Arrays.copyOf(tmp, out));
+                }
+            }
+        }
+    }
+
+    private short encodeChunk(Base64Codec codec, byte[] in, int off, int len, short out, boolean last) {
+        short pred = codec.getEncodeLength(in, (short)off, (short)len, last);
+        short res;
+        if(last) {
+            res = codec.encodeFinal(in, (short)off, (short)len, tmp, out, (short)(tmp.length - out));
+        } else {
+            res = codec.encodeUpdate(in, (short)off, (short)len, tmp, out, (short)(tmp.length - out));
+        }
+        Assert.assertEquals(pred, res);
+        return res;
+    }
+
+    @Test
+    public void testDecodeSplits() {
+        assertDecodeSplits(mCodec, ascii("Zm9vYmFyZm9vYmFyZm9vYg=="));
+        assertDecodeSplits(mCodec, ascii("Zm9vYmFyZm9vYmFyZm9vYmE="));
+        assertDecodeSplits(mCodec, ascii("Zm9vYmFyZm9vYmFyZm9vYmE"));
+        assertDecodeSplits(mUrl, ascii("-_-__w"));
+    }
+
+    private void assertDecodeSplits(Base64Codec codec, byte[] in) {
+        byte[] expected = decode(codec, in);
+        int n = in.length;
+        for(int a = 0; a <= n; a++) {
+            for(int b = a; b <= n; b++) {
+                codec.decodeReset();
+                short out = 0;
+                out += decodeChunk(codec, in, 0, a, out, false);
+                out += decodeChunk(codec, in, a, b - a, out, false);
+                out += decodeChunk(codec, in, b, n - b, out, true);
+                Assert.assertArrayEquals("split " + a + "/" + b, expected, Arrays.copyOf(tmp, out));
+            }
+        }
+    }
+
+    private short decodeChunk(Base64Codec codec, byte[] in, int off, int len, short out, boolean last) {
+        short pred = codec.getDecodeLength(in, (short)off, (short)len, last);
+        short res;
+        if(last) {
+            res = codec.decodeFinal(in, (short)off, (short)len, tmp, out, (short)(tmp.length - out));
+        } else {
+            res = codec.decodeUpdate(in, (short)off, (short)len, tmp, out, (short)(tmp.length - out));
+        }
+        Assert.assertEquals(pred, res);
+        return res;
+    }
+
+    @Test
+    public void testStreamRejectsSplitPadding() {
+        byte[] in = ascii("QQ=A");
+        mCodec.decodeReset();
+        mCodec.decodeUpdate(in, (short)0, (short)3, tmp, (short)0, (short)tmp.length);
+        try {
+            mCodec.decodeFinal(in, (short)3, (short)1, tmp, (short)0, (short)tmp.length);
+            Assert.fail();
+        } catch (ISOException e) {
+            // expected
+        }
+        // usable again after a reset
+        mCodec.decodeReset();
+        Assert.assertEquals(1, mCodec.decodeFinal(in, (short)0, (short)2, tmp, (short)0, (short)tmp.length));
+        Assert.assertEquals((byte)'A', tmp[0]);
+    }
+
+    @Test
+    public void testOneShotIgnoresStream() {
+        byte[] in = ascii("foo");
+        mCodec.encodeReset();
+        mCodec.encodeUpdate(in, (short)0, (short)1, tmp, (short)0, (short)tmp.length);
+        Assert.assertEquals(4, mCodec.getOneShotEncodedLength((short)3));
+        Assert.assertEquals(4, mCodec.encode(in, (short)0, (short)3, tmp, (short)0, (short)tmp.length));
+        // the stream continues where it was
+        short len = mCodec.encodeFinal(in, (short)1, (short)2, tmp, (short)0, (short)tmp.length);
+        Assert.assertEquals(3, len);
+        Assert.assertArrayEquals(ascii("m9v"), Arrays.copyOf(tmp, len));
+    }
+
+}
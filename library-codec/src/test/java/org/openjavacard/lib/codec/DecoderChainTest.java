@@ -0,0 +1,132 @@
+package org.openjavacard.lib.codec;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class DecoderChainTest {
+
+    /** Base64 of HexCodecTest.HEX */
+    static final String B64_HEX = "MDAxMTIyMzM0NDU1NjY3Nzg4OTlhYWJiY2NkZGVlZmY=";
+
+    /** Base64 of B64_HEX */
+    static final String B64_B64_HEX = "TURBeE1USXlNek0wTkRVMU5qWTNOemc0T1RsaFlXSmlZMk5rWkdWbFptWT0=";
+
+    byte[] tmp;
+
+    HexCodec mHex;
+    Base64Codec mBase64;
+    DecoderChain mChain;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[128];
+        mHex = new HexCodec(JCSystem.CLEAR_ON_DESELECT);
+        mBase64 = new Base64Codec(false, true, JCSystem.CLEAR_ON_DESELECT);
+        mChain = new DecoderChain(mBase64, mHex);
+    }
+
+    private static byte[] ascii(String s) {
+        return HexCodecTest.ascii(s);
+    }
+
+    @Test
+    public void testDecode() {
+        byte[] in = ascii(B64_HEX);
+        short len = mChain.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testDecodeInPlace() {
+        byte[] in = ascii(B64_HEX);
+        short len = mChain.decode(in, (short)0, (short)in.length, in, (short)0, (short)in.length);
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(in, len));
+    }
+
+    @Test
+    public void testNested() {
+        Base64Codec outer = new Base64Codec(false, true, JCSystem.CLEAR_ON_DESELECT);
+        DecoderChain chain = new DecoderChain(outer, mChain);
+        byte[] in = ascii(B64_B64_HEX);
+        short len = chain.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testStreamSplits() {
+        byte[] in = ascii(B64_HEX);
+        int n = in.length;
+        for(int a = 0; a <= n; a++) {
+            for(int b = a; b <= n; b++) {
+                mChain.decodeReset();
+                short out = 0;
+                out += chunk(in, 0, a, out, false);
+                out += chunk(in, a, b - a, out, false);
+                out += chunk(in, b, n - b, out, true);
+                Assert.assertArrayEquals("split " + a + "/" + b, HexCodecTest.DATA, Arrays.copyOf(tmp, out));
+            }
+        }
+    }
+
+    private short chunk(byte[] in, int off, int len, short out, boolean last) {
+        short bound = mChain.getDecodeLength(in, (short)off, (short)len, last);
+        short res;
+        if(last) {
+            res = mChain.decodeFinal(in, (short)off, (short)len, tmp, out, bound);
+        } else {
+            res = mChain.decodeUpdate(in, (short)off, (short)len, tmp, out, bound);
+        }
+        // the prediction for a chain is an upper bound
+        Assert.assertTrue(res <= bound);
+        return res;
+    }
+
+    @Test
+    public void testStreamApdus() {
+        // base64 arriving in chunks of 5, as from short command APDUs
+        byte[] in = ascii(B64_HEX);
+        mChain.decodeReset();
+        short out = 0;
+        int off = 0;
+        while(in.length - off > 5) {
+            out += mChain.decodeUpdate(in, (short)off, (short)5, tmp, out, (short)(tmp.length - out));
+            off += 5;
+        }
+        out += mChain.decodeFinal(in, (short)off, (short)(in.length - off), tmp, out, (short)(tmp.length - out));
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(tmp, out));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidInner() {
+        // valid base64 of "0g"
+        byte[] in = ascii("MGc=");
+        mChain.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testIncompleteInner() {
+        // valid base64 of "abc", leaving a hex digit dangling
+        byte[] in = ascii("YWJj");
+        mChain.decodeReset();
+        mChain.decodeFinal(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+    }
+
+    @Test
+    public void testOneShotIgnoresStream() {
+        byte[] in = ascii(B64_HEX);
+        mChain.decodeReset();
+        short out = mChain.decodeUpdate(in, (short)0, (short)7, tmp, (short)0, (short)tmp.length);
+        // one-shot use in between
+        byte[] other = new byte[32];
+        short len = mChain.decode(in, (short)0, (short)in.length, other, (short)0, (short)other.length);
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(other, len));
+        out += mChain.decodeFinal(in, (short)7, (short)(in.length - 7), tmp, out, (short)(tmp.length - out));
+        Assert.assertArrayEquals(HexCodecTest.DATA, Arrays.copyOf(tmp, out));
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.openjavacard.lib.codec;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class HexCodecTest {
+
+    static final byte[] DATA = new byte[] {
+            (byte)0x00, (byte)0x11, (byte)0x22, (byte)0x33,
+            (byte)0x44, (byte)0x55, (byte)0x66, (byte)0x77,
+            (byte)0x88, (byte)0x99, (byte)0xAA, (byte)0xBB,
+            (byte)0xCC, (byte)0xDD, (byte)0xEE, (byte)0xFF,
+    };
+
+    static final String HEX = "00112233445566778899aabbccddeeff";
+
+    byte[] tmp;
+
+    HexCodec mCodec;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[64];
+        mCodec = new HexCodec(JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    static byte[] ascii(String s) {
+        byte[] res = new byte[s.length()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = (byte)s.charAt(i);
+        }
+        return res;
+    }
+
+    private byte[] encode(byte[] in) {
+        short len = mCodec.encode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        Assert.assertEquals(len, mCodec.getEncodeLength(in, (short)0, (short)in.length, true));
+        return Arrays.copyOf(tmp, len);
+    }
+
+    private byte[] decode(byte[] in) {
+        short len = mCodec.decode(in, (short)0, (short)in.length, tmp, (short)0, (short)tmp.length);
+        return Arrays.copyOf(tmp, len);
+    }
+
+    @Test
+    public void testEncode() {
+        Assert.assertArrayEquals(new byte[0], encode(new byte[0]));
+        Assert.assertArrayEquals(ascii(HEX), encode(DATA));
+        Assert.assertArrayEquals(ascii("7f80"), encode(new byte[] { (byte)0x7F, (byte)0x80 }));
+    }
+
+    @Test
+    public void testEncodeInPlace() {
+        System.arraycopy(DATA, 0, tmp, 4, DATA.length);
+        short len = mCodec.encode(tmp, (short)4, (short)DATA.length, tmp, (short)4, (short)(tmp.length - 4));
+        Assert.assertEquals(32, len);
+        Assert.assertArrayEquals(ascii(HEX), Arrays.copyOfRange(tmp, 4, 4 + len));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testEncodeOverlap() {
+        // output starting before the input would overwrite it
+        mCodec.encode(tmp, (short)4, (short)8, tmp, (short)0, (short)32);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testEncodeNoSpace() {
+        mCodec.encode(DATA, (short)0, (short)DATA.length, tmp, (short)0, (short)31);
+    }
+
+    @Test
+    public void testDecode() {
+        Assert.assertArrayEquals(new byte[0], decode(new byte[0]));
+        Assert.assertArrayEquals(DATA, decode(ascii(HEX)));
+        Assert.assertArrayEquals(DATA, decode(ascii(HEX.toUpperCase())));
+    }
+
+    @Test
+    public void testDecodeInPlace() {
+        byte[] buf = ascii(HEX);
+        Assert.assertEquals(16, mCodec.decodeInPlace(buf, (short)0, (short)buf.length));
+        Assert.assertArrayEquals(DATA, Arrays.copyOf(buf, 16));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testDecodeOdd() {
+        decode(ascii("abc"));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testDecodeInvalid() {
+        decode(ascii("0g"));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testDecodeNonAscii() {
+        decode(new byte[] { (byte)0x30, (byte)0xB0 });
+    }
+
+    @Test
+    public void testVerify() {
+        byte[] buf = ascii("09afAFxx");
+        Assert.assertEquals(6, mCodec.verify(buf, (short)0, (short)buf.length));
+        Assert.assertEquals(0, mCodec.verify(buf, (short)6, (short)2));
+        Assert.assertTrue(HexCodec.isxdigit((byte)'F'));
+        Assert.assertFalse(HexCodec.isxdigit((byte)0xC6));
+        Assert.assertEquals(10, HexCodec.xdigit((byte)'a'));
+    }
+
+    @Test
+    public void testStreamSplits() {
+        byte[] in = ascii(HEX);
+        int n = in.length;
+        for(int a = 0; a <= n; a++) {
+            for(int b = a; b <= n; b++) {
+                mCodec.decodeReset();
+                short out = 0;
+                out += update(in, 0, a, out);
+                out += update(in, a, b - a, out);
+                short pred = mCodec.getDecodeLength(in, (short)b, (short)(n - b), true);
+                short len = mCodec.decodeFinal(in, (short)b, (short)(n - b), tmp, out, (short)(tmp.length - out));
+                Assert.assertEquals(pred, len);
+                out += len;
+                Assert.assertArrayEquals("split " + a + "/" + b, DATA, Arrays.copyOf(tmp, out));
+            }
+        }
+    }
+
+    private short update(byte[] in, int off, int len, short out) {
+        short pred = mCodec.getDecodeLength(in, (short)off, (short)len, false);
+        short res = mCodec.decodeUpdate(in, (short)off, (short)len, tmp, out, (short)(tmp.length - out));
+        Assert.assertEquals(pred, res);
+        return res;
+    }
+
+    @Test
+    public void testStreamSingleDigits() {
+        byte[] in = ascii(HEX);
+        mCodec.decodeReset();
+        short out = 0;
+        for(int i = 0; i < in.length; i++) {
+            short len = update(in, i, 1, out);
+            // output appears on every second digit
+            Assert.assertEquals(i & 1, len);
+            out += len;
+        }
+        out += mCodec.decodeFinal(in, (short)0, (short)0, tmp, out, (short)(tmp.length - out));
+        Assert.assertArrayEquals(DATA, Arrays.copyOf(tmp, out));
+    }
+
+    @Test
+    public void testStreamDangling() {
+        byte[] in = ascii("abc");
+        mCodec.decodeReset();
+        try {
+            mCodec.decodeFinal(in, (short)0, (short)3, tmp, (short)0, (short)tmp.length);
+            Assert.fail();
+        } catch (ISOException e) {
+            // the stream is reset
+        }
+        Assert.assertEquals(1, mCodec.decodeFinal(in, (short)1, (short)2, tmp, (short)0, (short)tmp.length));
+        Assert.assertEquals((byte)0xBC, tmp[0]);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testStreamInvalid() {
+        byte[] in = ascii("a");
+        mCodec.decodeReset();
+        mCodec.decodeUpdate(in, (short)0, (short)1, tmp, (short)0, (short)tmp.length);
+        in[0] = 'z';
+        mCodec.decodeUpdate(in, (short)0, (short)1, tmp, (short)0, (short)tmp.length);
+    }
+
+    @Test
+    public void testStreamEncode() {
+        mCodec.encodeReset();
+        short out = mCodec.encodeUpdate(DATA, (short)0, (short)3, tmp, (short)0, (short)tmp.length);
+        out += mCodec.encodeFinal(DATA, (short)3, (short)13, tmp, out, (short)(tmp.length - out));
+        Assert.assertArrayEquals(ascii(HEX), Arrays.copyOf(tmp, out));
+    }
+
+}
@@ -74,6 +74,7 @@ public class ATR {
 
     /* Card capabilities (Software function table 3) */
 
+    public static final byte SFT3_COMMAND_CHAINING = (byte)0x80;
     public static final byte SFT3_EXTENDED_APDU = (byte)0x40;
     public static final byte SFT3_CHANNELS_MASK = (byte)0x18;
     public static final byte SFT3_CHANNELS_UNSUPPORTED = (byte)0x00;
@@ -81,7 +82,7 @@ public class ATR {
     public static final byte SFT3_CHANNELS_ASSIGNED_BY_HOST = (byte)0x10;
     public static final byte SFT3_CHANNELS_RESERVED = (byte)0x18;
     public static final byte SFT3_MAX_CHANNELS_MASK = (byte)0x03;
-    public static final byte SFT3_RESERVED_MASK = (byte)0xA4;
+    public static final byte SFT3_RESERVED_MASK = (byte)0x24;
     public static final byte SFT3_RESERVED_OKAY = (byte)0x00;
 
 }
@@ -0,0 +1,270 @@
+package org.openjavacard.lib.ctlv;
+
+import javacard.framework.APDU;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.Util;
+import org.globalplatform.GPSystem;
+
+/**
+ * Builder for ATR historical bytes
+ * <p/>
+ * Card features are declared using the setters, after which
+ * encode() produces the historical bytes in COMPACT-TLV format.
+ * They are cached in a persistent array so that serving them,
+ * for example in response to GET DATA, is a single copy.
+ * <p/>
+ * The software function tables are derived from the declared
+ * features. SFT2 and SFT3 are only included when required.
+ * <p/>
+ * The cache is invalidated by every setter and before encoding
+ * starts, so stale bytes are never served and a torn encode()
+ * leaves it empty instead of corrupted. Call encode() again
+ * after changing any feature.
+ * <p/>
+ */
+public class ATRBuilder {
+
+    /** Maximum number of historical bytes */
+    public static final byte MAX_LENGTH = (byte)15;
+
+    /** Declared: selection methods (SFT1) */
+    private byte mSelection;
+    /** Declared: write behaviour and data unit size (SFT2) */
+    private byte mDataCoding;
+    /** Declared: command chaining, extended length and logical channels (SFT3) */
+    private byte mSFT3;
+    /** Declared: card service data */
+    private byte mServiceData;
+    /** Declared: true if card service data should be included */
+    private boolean mHasServiceData;
+    /** Declared: life cycle status */
+    private byte mLifeCycle;
+    /** Declared: true if life cycle status should be included */
+    private boolean mHasLifeCycle;
+    /** Declared: status word */
+    private short mStatusWord;
+    /** Declared: true if status word should be included */
+    private boolean mHasStatusWord;
+
+    /** Cached historical bytes */
+    private final byte[] mBytes;
+    /** Length of cached historical bytes, 0 if not encoded */
+    private byte mLength;
+
+    public ATRBuilder() {
+        mBytes = new byte[MAX_LENGTH];
+    }
+
+    /**
+     * Declare supported selection methods
+     * @param methods combination of ATR.SFT1_* flags
+     */
+    public void setSelectionMethods(byte methods) {
+        mSelection = methods;
+        invalidate();
+    }
+
+    /**
+     * Declare data coding
+     * @param writeBehaviour one of ATR.SFT2_WRITE_*
+     * @param dataUnitSize log2 of the data unit size in quartets
+     */
+    public void setDataCoding(byte writeBehaviour, byte dataUnitSize) {
+        if((writeBehaviour & ~ATR.SFT2_WRITE_MASK) != 0
+                || (dataUnitSize & ~ATR.SFT2_DUSIZE_MASK) != 0) {
+            error();
+        }
+        mDataCoding = (byte)(writeBehaviour | dataUnitSize);
+        invalidate();
+    }
+
+    /**
+     * Declare support for command chaining
+     * @param supported true if supported
+     */
+    public void setCommandChaining(boolean supported) {
+        if(supported) {
+            mSFT3 |= ATR.SFT3_COMMAND_CHAINING;
+        } else {
+            mSFT3 &= ~ATR.SFT3_COMMAND_CHAINING;
+        }
+        invalidate();
+    }
+
+    /**
+     * Declare support for extended length APDUs
+     * @param supported true if supported
+     */
+    public void setExtendedLength(boolean supported) {
+        if(supported) {
+            mSFT3 |= ATR.SFT3_EXTENDED_APDU;
+        } else {
+            mSFT3 &= ~ATR.SFT3_EXTENDED_APDU;
+        }
+        invalidate();
+    }
+
+    /**
+     * Declare support for logical channels
+     * @param assignment one of ATR.SFT3_CHANNELS_*
+     * @param maxChannels maximum number of channels (1-4)
+     */
+    public void setLogicalChannels(byte assignment, byte maxChannels) {
+        if((assignment & ~ATR.SFT3_CHANNELS_MASK) != 0
+                || assignment == ATR.SFT3_CHANNELS_RESERVED
+                || maxChannels < 1 || maxChannels > 4) {
+            error();
+        }
+        byte channels = 0;
+        if(assignment != ATR.SFT3_CHANNELS_UNSUPPORTED) {
+            channels = (byte)(maxChannels - 1);
+        }
+        byte keep = (byte)(ATR.SFT3_COMMAND_CHAINING | ATR.SFT3_EXTENDED_APDU);
+        mSFT3 = (byte)((mSFT3 & keep) | assignment | channels);
+        invalidate();
+    }
+
+    /**
+     * Declare card service data
+     * @param csd combination of ATR.CSD_* flags
+     */
+    public void setCardServiceData(byte csd) {
+        if((csd & ATR.CSD_RESERVED_MASK) != ATR.CSD_RESERVED_OKAY) {
+            error();
+        }
+        mServiceData = csd;
+        mHasServiceData = true;
+        invalidate();
+    }
+
+    /**
+     * Declare life cycle status for the status indicator
+     * @param lcs one of ATR.LCS_*
+     */
+    public void setLifeCycle(byte lcs) {
+        mLifeCycle = lcs;
+        mHasLifeCycle = true;
+        invalidate();
+    }
+
+    /**
+     * Declare status word for the status indicator
+     * @param sw to indicate
+     */
+    public void setStatusWord(short sw) {
+        mStatusWord = sw;
+        mHasStatusWord = true;
+        invalidate();
+    }
+
+    /**
+     * Encode the declared features
+     * @return length of the historical bytes
+     */
+    public short encode() {
+        byte[] buf = mBytes;
+        // invalidate the cache
+        invalidate();
+        // category indicator
+        short off = 0;
+        buf[off++] = ATR.CATEGORY_COMPACT_TLV;
+        // card service data
+        if(mHasServiceData) {
+            off += CTLV.putByte(buf, off, (short)(MAX_LENGTH - off),
+                    ATR.TAG_CARD_SERVICE_DATA, mServiceData);
+        }
+        // card capabilities, omitting trailing tables
+        byte tables = 1;
+        if(mSFT3 != 0) {
+            tables = 3;
+        } else if(mDataCoding != 0) {
+            tables = 2;
+        }
+        buf[off++] = (byte)(ATR.TAG_CARD_CAPABILITIES | tables);
+        buf[off++] = mSelection;
+        if(tables > 1) {
+            buf[off++] = mDataCoding;
+        }
+        if(tables > 2) {
+            buf[off++] = mSFT3;
+        }
+        // status indicator
+        if(mHasLifeCycle && mHasStatusWord) {
+            buf[off++] = (byte)(ATR.TAG_STATUS_INDICATOR | 3);
+            buf[off++] = mLifeCycle;
+            off = Util.setShort(buf, off, mStatusWord);
+        } else if(mHasLifeCycle) {
+            off += CTLV.putByte(buf, off, (short)(MAX_LENGTH - off),
+                    ATR.TAG_STATUS_INDICATOR, mLifeCycle);
+        } else if(mHasStatusWord) {
+            off += CTLV.putShort(buf, off, (short)(MAX_LENGTH - off),
+                    ATR.TAG_STATUS_INDICATOR, mStatusWord);
+        }
+        // validate the cache
+        mLength = (byte)off;
+        return off;
+    }
+
+    /** @return true if historical bytes have been encoded */
+    public boolean isEncoded() {
+        return mLength != 0;
+    }
+
+    /** @return length of the historical bytes */
+    public short getLength() {
+        return mLength;
+    }
+
+    /**
+     * Copy the historical bytes
+     * @param buf to copy to
+     * @param off to copy at
+     * @return offset after the historical bytes
+     */
+    public short copyTo(byte[] buf, short off) {
+        checkEncoded();
+        return Util.arrayCopyNonAtomic(mBytes, (short)0, buf, off, mLength);
+    }
+
+    /**
+     * Install the historical bytes for the next card reset
+     * <p/>
+     * Requires the Card Reset privilege. The bytes are passed
+     * from the start of the APDU buffer because the GlobalPlatform
+     * API requires a global array. This overwrites the buffer.
+     * <p/>
+     * @param apdu providing the buffer
+     * @return true if the bytes were installed
+     */
+    public boolean install(APDU apdu) {
+        checkEncoded();
+        byte[] buf = apdu.getBuffer();
+        copyTo(buf, (short)0);
+        return GPSystem.setATRHistBytes(buf, (short)0, mLength);
+    }
+
+    /**
+     * Internal: invalidate the cached historical bytes
+     */
+    private void invalidate() {
+        mLength = 0;
+    }
+
+    /**
+     * Internal: check that historical bytes have been encoded
+     */
+    private void checkEncoded() {
+        if(mLength == 0) {
+            error();
+        }
+    }
+
+    /**
+     * Internal: throw exception because of an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -44,6 +44,9 @@ public class CTLV {
     /**
      * Find offset of a C-TLV tag, if present
      * <p/>
+     * Objects are checked to fit the data up to the one found.
+     * Use CTLVIndex for looking up several tags.
+     * <p/>
      * @param inBuf containing C-TLV data
      * @param inOff offset of data
      * @param inLen length of data
@@ -54,12 +57,16 @@ public class CTLV {
         // start at given offset
         short off = inOff;
         // determine end of data
-        short end = (short)(inOff + inLen - 1);
+        short end = (short)(inOff + inLen);
         // search for the tag
         while(off < end) {
             // get fields of current tag
             byte t = getTag(inBuf, off);
             byte l = getLength(inBuf, off);
+            // check that the value fits
+            if(l >= (short)(end - off)) {
+                error();
+            }
             // is this the requested tag?
             if(t == tag) {
                 // return offset of TL byte
@@ -0,0 +1,130 @@
+package org.openjavacard.lib.ctlv;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Offset index for Compact-TLV data
+ * <p/>
+ * The data is validated and indexed in a single pass. Since there
+ * are only 16 possible tags, the index has one slot per tag and
+ * every lookup afterwards takes constant time.
+ * <p/>
+ * Only the first occurrence of each tag is recorded.
+ * <p/>
+ * Offsets refer to the buffer given to scan(), which must not
+ * change while the index is in use.
+ * <p/>
+ * Slots hold the offset plus one, so that a slot cleared by the
+ * runtime on deselect or reset reads as absent.
+ * <p/>
+ */
+public class CTLVIndex {
+
+    /** Number of possible tags */
+    private static final byte NUM_TAGS = 16;
+
+    /** Transient: offset of TL byte plus one per tag, 0 if absent */
+    private final short[] mOffsets;
+
+    /**
+     * Construct an index
+     * @param clearOn for transient memory
+     */
+    public CTLVIndex(byte clearOn) {
+        mOffsets = JCSystem.makeTransientShortArray(NUM_TAGS, clearOn);
+    }
+
+    /**
+     * Forget all tags
+     */
+    public void clear() {
+        for(byte i = 0; i < NUM_TAGS; i++) {
+            mOffsets[i] = 0;
+        }
+    }
+
+    /**
+     * Validate and index C-TLV data
+     * <p/>
+     * Throws if any object exceeds the data.
+     * <p/>
+     * @param inBuf containing C-TLV data
+     * @param inOff offset of data
+     * @param inLen length of data
+     * @return number of objects
+     */
+    public short scan(byte[] inBuf, short inOff, short inLen) {
+        short count = 0;
+        short off = inOff;
+        short end = (short)(inOff + inLen);
+        clear();
+        while(off < end) {
+            byte tl = inBuf[off];
+            byte l = (byte)(tl & CTLV.MASK_LENGTH);
+            // check that the value fits
+            if(l >= (short)(end - off)) {
+                clear();
+                error();
+            }
+            // record first occurrence
+            byte slot = (byte)((tl >> 4) & 0x0F);
+            if(mOffsets[slot] == 0) {
+                mOffsets[slot] = (short)(off + 1);
+            }
+            // skip TL byte and data
+            off += (short)(1 + l);
+            count++;
+        }
+        return count;
+    }
+
+    /** @return true if the tag is present */
+    public boolean has(byte tag) {
+        return find(tag) >= 0;
+    }
+
+    /** @return offset of the TL byte of the tag, -1 if absent */
+    public short find(byte tag) {
+        return (short)(mOffsets[slot(tag)] - 1);
+    }
+
+    /** @return offset of the value of the tag, -1 if absent */
+    public short getValueOffset(byte tag) {
+        short off = find(tag);
+        if(off < 0) {
+            return -1;
+        }
+        return (short)(off + 1);
+    }
+
+    /** @return length of the value of the tag, -1 if absent */
+    public short getLength(byte[] inBuf, byte tag) {
+        short off = find(tag);
+        if(off < 0) {
+            return -1;
+        }
+        return CTLV.getLength(inBuf, off);
+    }
+
+    /**
+     * Internal: determine the slot for a tag
+     * @param tag to look up
+     * @return slot index
+     */
+    private static byte slot(byte tag) {
+        if((tag & CTLV.MASK_TAG) != tag) {
+            error();
+        }
+        return (byte)((tag >> 4) & 0x0F);
+    }
+
+    /**
+     * Internal: throw exception because of an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.openjavacard.lib.ctlv;
+
+import javacard.framework.ISOException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ATRBuilderTest {
+
+    ATRBuilder mBuilder;
+
+    @Before
+    public void prepare() {
+        mBuilder = new ATRBuilder();
+    }
+
+    private byte[] encode() {
+        short len = mBuilder.encode();
+        Assert.assertEquals(len, mBuilder.getLength());
+        byte[] buf = new byte[ATRBuilder.MAX_LENGTH + 2];
+        Assert.assertEquals(len + 2, mBuilder.copyTo(buf, (short)2));
+        return Arrays.copyOfRange(buf, 2, 2 + len);
+    }
+
+    @Test
+    public void testMinimal() {
+        Assert.assertFalse(mBuilder.isEncoded());
+        // category and the mandatory first table
+        byte[] expected = new byte[] {
+                (byte)0x80, (byte)0x71, (byte)0x00,
+        };
+        Assert.assertArrayEquals(expected, encode());
+        Assert.assertTrue(mBuilder.isEncoded());
+    }
+
+    @Test
+    public void testFull() {
+        mBuilder.setCardServiceData((byte)(ATR.CSD_SELECT_BY_DFNAME_FULL | ATR.CSD_READ_BINARY));
+        mBuilder.setSelectionMethods((byte)(ATR.SFT1_DF_SELECT_BY_DFNAME_FULL | ATR.SFT1_DF_SELECT_BY_FILEID));
+        mBuilder.setExtendedLength(true);
+        mBuilder.setLogicalChannels(ATR.SFT3_CHANNELS_ASSIGNED_BY_CARD, (byte)4);
+        mBuilder.setLifeCycle(ATR.LCS_OPERATIONAL_ACTIVATED);
+        mBuilder.setStatusWord((short)0x9000);
+        byte[] expected = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x73, (byte)0x90, (byte)0x00, (byte)0x4B,
+                (byte)0x83, (byte)0x05, (byte)0x90, (byte)0x00,
+        };
+        Assert.assertArrayEquals(expected, encode());
+    }
+
+    @Test
+    public void testCommandChaining() {
+        mBuilder.setCommandChaining(true);
+        byte[] expected = new byte[] {
+                (byte)0x80, (byte)0x73, (byte)0x00, (byte)0x00, (byte)0x80,
+        };
+        Assert.assertArrayEquals(expected, encode());
+        // kept when declaring other SFT3 features
+        mBuilder.setLogicalChannels(ATR.SFT3_CHANNELS_ASSIGNED_BY_HOST, (byte)2);
+        mBuilder.setExtendedLength(true);
+        expected[4] = (byte)0xD1;
+        Assert.assertArrayEquals(expected, encode());
+        // the table is dropped when nothing remains
+        mBuilder.setCommandChaining(false);
+        mBuilder.setExtendedLength(false);
+        mBuilder.setLogicalChannels(ATR.SFT3_CHANNELS_UNSUPPORTED, (byte)1);
+        Assert.assertArrayEquals(new byte[] { (byte)0x80, (byte)0x71, (byte)0x00 }, encode());
+    }
+
+    @Test
+    public void testDataCoding() {
+        mBuilder.setDataCoding(ATR.SFT2_WRITE_OR, (byte)1);
+        byte[] expected = new byte[] {
+                (byte)0x80, (byte)0x72, (byte)0x00, (byte)0x41,
+        };
+        Assert.assertArrayEquals(expected, encode());
+    }
+
+    @Test
+    public void testStatusIndicator() {
+        mBuilder.setLifeCycle(ATR.LCS_INITIALIZATION);
+        Assert.assertArrayEquals(new byte[] {
+                (byte)0x80, (byte)0x71, (byte)0x00, (byte)0x81, (byte)0x03,
+        }, encode());
+        mBuilder = new ATRBuilder();
+        mBuilder.setStatusWord((short)0x6A82);
+        Assert.assertArrayEquals(new byte[] {
+                (byte)0x80, (byte)0x71, (byte)0x00, (byte)0x82, (byte)0x6A, (byte)0x82,
+        }, encode());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testCopyBeforeEncode() {
+        mBuilder.copyTo(new byte[ATRBuilder.MAX_LENGTH], (short)0);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testCopyAfterChange() {
+        encode();
+        mBuilder.setExtendedLength(true);
+        Assert.assertFalse(mBuilder.isEncoded());
+        Assert.assertEquals(0, mBuilder.getLength());
+        // stale bytes must not be served
+        mBuilder.copyTo(new byte[ATRBuilder.MAX_LENGTH], (short)0);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidServiceData() {
+        mBuilder.setCardServiceData((byte)0x01);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidChannels() {
+        mBuilder.setLogicalChannels(ATR.SFT3_CHANNELS_RESERVED, (byte)1);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidDataCoding() {
+        mBuilder.setDataCoding(ATR.SFT2_WRITE_AND, (byte)8);
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.openjavacard.lib.ctlv;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+public class CTLVIndexTest {
+
+    CTLVIndex mIndex;
+
+    @Before
+    public void prepare() {
+        mIndex = new CTLVIndex(JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    private short scan(byte[] buf) {
+        return mIndex.scan(buf, (short)1, (short)(buf.length - 1));
+    }
+
+    @Test
+    public void testScan() {
+        byte[] buf = CTLVTest.HIST;
+        Assert.assertEquals(3, scan(buf));
+        Assert.assertEquals(1, mIndex.find(ATR.TAG_CARD_SERVICE_DATA));
+        Assert.assertEquals(4, mIndex.getValueOffset(ATR.TAG_CARD_CAPABILITIES));
+        Assert.assertEquals(3, mIndex.getLength(buf, ATR.TAG_CARD_CAPABILITIES));
+        Assert.assertEquals(7, mIndex.find(ATR.TAG_STATUS_INDICATOR));
+        Assert.assertTrue(mIndex.has(ATR.TAG_STATUS_INDICATOR));
+    }
+
+    @Test
+    public void testAbsent() {
+        scan(CTLVTest.HIST);
+        Assert.assertFalse(mIndex.has(ATR.TAG_COUNTRY));
+        Assert.assertEquals(-1, mIndex.find(ATR.TAG_COUNTRY));
+        Assert.assertEquals(-1, mIndex.getValueOffset(ATR.TAG_ISSUER));
+        Assert.assertEquals(-1, mIndex.getLength(CTLVTest.HIST, ATR.TAG_ISSUER));
+    }
+
+    @Test
+    public void testEmpty() {
+        scan(CTLVTest.HIST);
+        Assert.assertEquals(0, mIndex.scan(CTLVTest.HIST, (short)1, (short)0));
+        Assert.assertFalse(mIndex.has(ATR.TAG_CARD_SERVICE_DATA));
+    }
+
+    @Test
+    public void testCleared() throws Exception {
+        scan(CTLVTest.HIST);
+        // the runtime zeroes transient memory on deselect
+        Field field = CTLVIndex.class.getDeclaredField("mOffsets");
+        field.setAccessible(true);
+        Arrays.fill((short[])field.get(mIndex), (short)0);
+        Assert.assertFalse(mIndex.has(ATR.TAG_CARD_SERVICE_DATA));
+        Assert.assertFalse(mIndex.has(ATR.TAG_COUNTRY));
+        Assert.assertFalse(mIndex.has((byte)0x00));
+        Assert.assertEquals(-1, mIndex.find(ATR.TAG_STATUS_INDICATOR));
+    }
+
+    @Test
+    public void testDuplicate() {
+        byte[] buf = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x31, (byte)0x10,
+                (byte)0x00,
+        };
+        Assert.assertEquals(3, scan(buf));
+        // first occurrence wins
+        Assert.assertEquals(1, mIndex.find(ATR.TAG_CARD_SERVICE_DATA));
+        Assert.assertEquals(5, mIndex.find((byte)0x00));
+        Assert.assertEquals(0, mIndex.getLength(buf, (byte)0x00));
+    }
+
+    @Test
+    public void testOverrun() {
+        byte[] buf = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x73, (byte)0x90, (byte)0x00,
+        };
+        try {
+            scan(buf);
+            Assert.fail();
+        } catch (ISOException e) {
+            // nothing is left indexed
+            Assert.assertFalse(mIndex.has(ATR.TAG_CARD_SERVICE_DATA));
+        }
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidTag() {
+        mIndex.find((byte)0x31);
+    }
+
+}
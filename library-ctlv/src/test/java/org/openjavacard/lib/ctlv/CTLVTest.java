@@ -0,0 +1,97 @@
+package org.openjavacard.lib.ctlv;
+
+import javacard.framework.ISOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CTLVTest {
+
+    /** Historical bytes: category, card service data, capabilities, status */
+    static final byte[] HIST = new byte[] {
+            (byte)0x80,
+            (byte)0x31, (byte)0x88,
+            (byte)0x73, (byte)0x90, (byte)0x00, (byte)0x4B,
+            (byte)0x83, (byte)0x05, (byte)0x90, (byte)0x00,
+    };
+
+    private static short find(byte[] buf, byte tag) {
+        return CTLV.find(buf, (short)1, (short)(buf.length - 1), tag);
+    }
+
+    @Test
+    public void testFind() {
+        Assert.assertEquals(1, find(HIST, ATR.TAG_CARD_SERVICE_DATA));
+        Assert.assertEquals(3, find(HIST, ATR.TAG_CARD_CAPABILITIES));
+        Assert.assertEquals(7, find(HIST, ATR.TAG_STATUS_INDICATOR));
+        Assert.assertEquals(3, CTLV.getLength(HIST, (short)7));
+        Assert.assertEquals(ATR.TAG_STATUS_INDICATOR, CTLV.getTag(HIST, (short)7));
+    }
+
+    @Test
+    public void testAbsent() {
+        Assert.assertEquals(-1, find(HIST, ATR.TAG_COUNTRY));
+        Assert.assertEquals(-1, find(HIST, ATR.TAG_PRE_ISSUING_DATA));
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(-1, CTLV.find(HIST, (short)1, (short)0, ATR.TAG_CARD_SERVICE_DATA));
+        Assert.assertEquals(-1, CTLV.find(new byte[0], (short)0, (short)0, ATR.TAG_CARD_SERVICE_DATA));
+    }
+
+    @Test
+    public void testDuplicate() {
+        byte[] buf = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x31, (byte)0x10,
+        };
+        Assert.assertEquals(1, find(buf, ATR.TAG_CARD_SERVICE_DATA));
+    }
+
+    @Test
+    public void testOverrunAfterMatch() {
+        // objects after the one found are not checked
+        byte[] buf = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x73, (byte)0x90,
+        };
+        Assert.assertEquals(1, find(buf, ATR.TAG_CARD_SERVICE_DATA));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testOverrun() {
+        byte[] buf = new byte[] {
+                (byte)0x80,
+                (byte)0x31, (byte)0x88,
+                (byte)0x73, (byte)0x90, (byte)0x00,
+        };
+        find(buf, ATR.TAG_STATUS_INDICATOR);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testOverrunLimit() {
+        // the value would fit the array but not the given length
+        CTLV.find(HIST, (short)1, (short)5, ATR.TAG_STATUS_INDICATOR);
+    }
+
+    @Test
+    public void testPut() {
+        byte[] buf = new byte[8];
+        Assert.assertEquals(2, CTLV.putByte(buf, (short)0, (short)8, ATR.TAG_CARD_SERVICE_DATA, (byte)0x88));
+        Assert.assertEquals(3, CTLV.putShort(buf, (short)2, (short)6, ATR.TAG_STATUS_INDICATOR, (short)0x9000));
+        Assert.assertEquals(3, CTLV.putBytes(buf, (short)5, (short)3, ATR.TAG_ISSUER, HIST, (short)1, (short)2));
+        Assert.assertArrayEquals(new byte[] {
+                (byte)0x31, (byte)0x88,
+                (byte)0x82, (byte)0x90, (byte)0x00,
+                (byte)0x22, (byte)0x31, (byte)0x88,
+        }, buf);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testPutNoSpace() {
+        CTLV.putShort(new byte[4], (short)2, (short)2, ATR.TAG_STATUS_INDICATOR, (short)0x9000);
+    }
+
+}
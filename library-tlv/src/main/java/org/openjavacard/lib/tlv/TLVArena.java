@@ -0,0 +1,285 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+import org.openjavacard.lib.ber.BERLength;
+import org.openjavacard.lib.ber.BERTag;
+
+/**
+ * Fixed-size storage for TLV trees
+ * <p/>
+ * Nodes are identified by their index and stored in preallocated
+ * parallel arrays. Values of primitive nodes are copied into a
+ * single value heap. No memory is allocated after construction
+ * and the arena can be reset in constant time.
+ * <p/>
+ * Trees are linked using parent, first-child and next-sibling
+ * indices. Top-level nodes have no parent and are linked as
+ * siblings starting from node 0.
+ * <p/>
+ * @see org.openjavacard.lib.tlv.TLVBuilder
+ */
+public final class TLVArena {
+
+    /** Index used for missing nodes */
+    public static final short NONE = -1;
+
+    /** State variables */
+    private final short[] mVars;
+    /** Number of state variables */
+    private static final byte NUM_VAR  = 2;
+    /** Variable: number of nodes used */
+    private static final byte VAR_COUNT = 0;
+    /** Variable: number of heap bytes used */
+    private static final byte VAR_HEAP  = 1;
+
+    /** Node tags */
+    private final short[] mTags;
+    /** Node parents */
+    private final short[] mParents;
+    /** Node first children */
+    private final short[] mFirst;
+    /** Node next siblings */
+    private final short[] mNext;
+    /** Node value offsets in the heap */
+    private final short[] mOffs;
+    /** Node value lengths */
+    private final short[] mLens;
+    /** Value heap */
+    private final byte[] mHeap;
+
+    /**
+     * Construct a persistent arena
+     * @param maxNodes maximum number of nodes
+     * @param heapSize size of the value heap
+     */
+    public TLVArena(short maxNodes, short heapSize) {
+        mVars = new short[NUM_VAR];
+        mTags = new short[maxNodes];
+        mParents = new short[maxNodes];
+        mFirst = new short[maxNodes];
+        mNext = new short[maxNodes];
+        mOffs = new short[maxNodes];
+        mLens = new short[maxNodes];
+        mHeap = new byte[heapSize];
+    }
+
+    /**
+     * Construct a transient arena
+     * @param maxNodes maximum number of nodes
+     * @param heapSize size of the value heap
+     * @param clearOn for transient memory
+     */
+    public TLVArena(short maxNodes, short heapSize, byte clearOn) {
+        mVars = JCSystem.makeTransientShortArray(NUM_VAR, clearOn);
+        mTags = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mParents = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mFirst = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mNext = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mOffs = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mLens = JCSystem.makeTransientShortArray(maxNodes, clearOn);
+        mHeap = JCSystem.makeTransientByteArray(heapSize, clearOn);
+    }
+
+    /** Drop all nodes */
+    public void reset() {
+        mVars[VAR_COUNT] = 0;
+        mVars[VAR_HEAP] = 0;
+    }
+
+    /** @return number of nodes */
+    public short getCount() {
+        return mVars[VAR_COUNT];
+    }
+
+    /** @return the value heap, for reading values in place */
+    public byte[] getHeap() {
+        return mHeap;
+    }
+
+    /** @return tag of the node */
+    public short getTag(short node) {
+        check(node);
+        return mTags[node];
+    }
+
+    /** @return true if the node is constructed */
+    public boolean isConstructed(short node) {
+        return BERTag.isConstructed(getTag(node));
+    }
+
+    /** @return parent of the node or NONE */
+    public short getParent(short node) {
+        check(node);
+        return mParents[node];
+    }
+
+    /** @return first child of the node or NONE */
+    public short getFirstChild(short node) {
+        check(node);
+        return mFirst[node];
+    }
+
+    /** @return next sibling of the node or NONE */
+    public short getNextSibling(short node) {
+        check(node);
+        return mNext[node];
+    }
+
+    /** @return offset of the value of a primitive node in the heap */
+    public short getValueOffset(short node) {
+        check(node);
+        return mOffs[node];
+    }
+
+    /** @return length of the value of the node */
+    public short getLength(short node) {
+        check(node);
+        return mLens[node];
+    }
+
+    /** @return encoded size of the node including its header */
+    public short getEncodedSize(short node) {
+        short len = getLength(node);
+        return (short)(BERTag.tagSize(mTags[node]) + BERLength.lengthSize(len) + len);
+    }
+
+    /**
+     * Copy the value of a primitive node
+     * @param node to read
+     * @param buf to copy to
+     * @param off to copy at
+     * @return offset after the value
+     */
+    public short readValue(short node, byte[] buf, short off) {
+        check(node);
+        return Util.arrayCopyNonAtomic(mHeap, mOffs[node], buf, off, mLens[node]);
+    }
+
+    /**
+     * Add a primitive node
+     * <p/>
+     * The value is copied into the heap.
+     * <p/>
+     * @param parent of the node or NONE
+     * @param prev sibling of the node or NONE
+     * @param tag of the node
+     * @param buf containing the value
+     * @param off of the value
+     * @param len of the value
+     * @return the new node
+     */
+    public short addPrimitive(short parent, short prev, short tag, byte[] buf, short off, short len) {
+        short heap = mVars[VAR_HEAP];
+        if(len < 0 || len > (short)(mHeap.length - heap)) {
+            error();
+        }
+        short node = allocate(parent, prev, tag);
+        Util.arrayCopyNonAtomic(buf, off, mHeap, heap, len);
+        mOffs[node] = heap;
+        mLens[node] = len;
+        mVars[VAR_HEAP] = (short)(heap + len);
+        return node;
+    }
+
+    /**
+     * Add a constructed node
+     * <p/>
+     * Its length is determined when calling finishConstructed().
+     * <p/>
+     * @param parent of the node or NONE
+     * @param prev sibling of the node or NONE
+     * @param tag of the node
+     * @return the new node
+     */
+    public short addConstructed(short parent, short prev, short tag) {
+        short node = allocate(parent, prev, BERTag.tagAsConstructed(tag));
+        mOffs[node] = NONE;
+        mLens[node] = 0;
+        return node;
+    }
+
+    /**
+     * Compute the length of a constructed node from its children
+     * @param node to finish
+     */
+    public void finishConstructed(short node) {
+        short len = 0;
+        short child = getFirstChild(node);
+        while(child != NONE) {
+            len += getEncodedSize(child);
+            child = mNext[child];
+        }
+        mLens[node] = len;
+    }
+
+    /**
+     * Internal: allocate and link a node
+     * @param parent of the node or NONE
+     * @param prev sibling of the node or NONE
+     * @param tag of the node
+     * @return the new node
+     */
+    private short allocate(short parent, short prev, short tag) {
+        short node = mVars[VAR_COUNT];
+        if(node == (short)mTags.length) {
+            error();
+        }
+        if(parent != NONE) {
+            check(parent);
+        }
+        if(prev != NONE) {
+            check(prev);
+        }
+        mTags[node] = tag;
+        mParents[node] = parent;
+        mFirst[node] = NONE;
+        mNext[node] = NONE;
+        if(prev != NONE) {
+            mNext[prev] = node;
+        } else if(parent != NONE) {
+            mFirst[parent] = node;
+        }
+        mVars[VAR_COUNT] = (short)(node + 1);
+        return node;
+    }
+
+    /**
+     * Internal: check a node index
+     * @param node to check
+     */
+    private void check(short node) {
+        if(node < 0 || node >= mVars[VAR_COUNT]) {
+            error();
+        }
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    private static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
+}
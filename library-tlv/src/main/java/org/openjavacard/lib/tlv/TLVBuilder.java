@@ -1,38 +1,94 @@
 package org.openjavacard.lib.tlv;
 
+import javacard.framework.JCSystem;
 import org.openjavacard.lib.ber.BERHandler;
 import org.openjavacard.lib.ber.BERSource;
 
+/**
+ * Handler building TLV trees in an arena
+ * <p/>
+ * Nodes are added to the arena as the parser reports them,
+ * so building a tree allocates no memory.
+ * <p/>
+ * @see org.openjavacard.lib.tlv.TLVArena
+ */
 public class TLVBuilder implements BERHandler {
 
-    Object[] mObjs;
-    private static final short OBJ_ROOT = 0;
-    private static final short OBJ_CURRENT = 1;
-    private static final short NUM_OBJS = 2;
+    /** Arena to build in */
+    private final TLVArena mArena;
+    /** Maximum depth of trees */
+    private final byte mMaxDepth;
+    /** Transient: open constructed node per depth */
+    private final short[] mParStk;
+    /** Transient: last node per depth */
+    private final short[] mPrevStk;
 
-    public TLVBuilder() {
+    /**
+     * Construct a builder
+     * <p/>
+     * Objects nested deeper than the maximum depth are rejected.
+     * <p/>
+     * @param arena to build in, reset by begin()
+     * @param maxDepth maximum nesting depth of constructed nodes
+     * @param clearOn for transient memory
+     */
+    public TLVBuilder(TLVArena arena, byte maxDepth, byte clearOn) {
+        mArena = arena;
+        mMaxDepth = maxDepth;
+        mParStk = JCSystem.makeTransientShortArray(maxDepth, clearOn);
+        mPrevStk = JCSystem.makeTransientShortArray((short)(maxDepth + 1), clearOn);
     }
 
-    private boolean handle(BERSource source, byte depth, TLVNode node) {
-        if(depth == 0) {
-            mObjs[OBJ_ROOT] = node;
+    /**
+     * Reset the arena and prepare for building
+     */
+    public void begin() {
+        mArena.reset();
+        mPrevStk[0] = TLVArena.NONE;
+    }
+
+    /** @return the arena being built in */
+    public TLVArena getArena() {
+        return mArena;
+    }
+
+    private short add(byte depth, short tag, byte[] dataBuf, short dataOff, short dataLen) {
+        short parent = TLVArena.NONE;
+        if(depth > 0) {
+            parent = mParStk[(byte)(depth - 1)];
+        }
+        short prev = mPrevStk[depth];
+        short node;
+        if(dataBuf == null) {
+            node = mArena.addConstructed(parent, prev, tag);
+        } else {
+            node = mArena.addPrimitive(parent, prev, tag, dataBuf, dataOff, dataLen);
         }
-        return false;
+        mPrevStk[depth] = node;
+        return node;
     }
 
     public boolean handlePrimitive(BERSource source, byte depth, short tag,
                                    byte[] dataBuf, short dataOff, short dataLen) {
-        TLVPrimitive node = new TLVPrimitive(tag, dataLen);
-        node.updateValue(dataBuf, dataOff, dataLen);
-        return handle(source, depth, node);
+        if(depth > mMaxDepth) {
+            return false;
+        }
+        add(depth, tag, dataBuf, dataOff, dataLen);
+        return true;
     }
 
     public boolean handleBeginConstructed(BERSource source, byte depth, short tag) {
-        TLVConstructed node = new TLVConstructed(tag);
-        return handle(source, depth, node);
+        if(depth >= mMaxDepth) {
+            return false;
+        }
+        short node = add(depth, tag, null, (short)0, (short)0);
+        mParStk[depth] = node;
+        mPrevStk[(byte)(depth + 1)] = TLVArena.NONE;
+        return true;
     }
 
     public boolean handleFinishConstructed(BERSource source, byte depth, short tag) {
+        mArena.finishConstructed(mParStk[depth]);
         return true;
     }
 
@@ -1,43 +1,164 @@
 package org.openjavacard.lib.tlv;
 
+import org.openjavacard.lib.ber.BERWriter;
+
 public class TLVConstructed extends TLVNode {
 
-    private TLVNode[] mChildren;
+    /** Default maximum number of children */
+    private static final short DEFAULT_CAPACITY = 8;
+
+    private final TLVNode[] mChildren;
+    private short mCount;
+    /** Cached length of the value */
+    private short mLength;
+    /** True if the cached length is invalid */
+    private boolean mDirty;
 
     public TLVConstructed(short tag) {
+        this(tag, DEFAULT_CAPACITY);
+    }
+
+    public TLVConstructed(short tag, short maxChildren) {
         super(tag);
+        mChildren = new TLVNode[maxChildren];
     }
 
+    /**
+     * Return the length of the value
+     * <p/>
+     * The cached length is recomputed if any descendant changed.
+     * Only dirty children are descended into.
+     * <p/>
+     * @return length of all children
+     */
     public final short getLength() {
-        return 0;
+        if(mDirty) {
+            short len = 0;
+            for(short i = 0; i < mCount; i++) {
+                len += mChildren[i].getEncodedSize();
+            }
+            mLength = len;
+            mDirty = false;
+        }
+        return mLength;
+    }
+
+    /** @return true if the cached length is invalid */
+    public final boolean isDirty() {
+        return mDirty;
     }
 
     public final short getChildCount() {
-        return (short)mChildren.length;
+        return mCount;
     }
 
     public TLVNode getChild(short index) {
+        if(index < 0 || index >= mCount) {
+            error();
+        }
         return mChildren[index];
     }
 
+    /** @return index of the child or -1 */
+    public short indexOfChild(TLVNode child) {
+        for(short i = 0; i < mCount; i++) {
+            if(mChildren[i] == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public boolean hasChild(TLVNode child) {
-        return false;
+        return child.getParent() == this;
     }
 
     public boolean removeChild(TLVNode child) {
-        return false;
+        short index = indexOfChild(child);
+        if(index < 0) {
+            return false;
+        }
+        mCount--;
+        for(short i = index; i < mCount; i++) {
+            mChildren[i] = mChildren[(short)(i + 1)];
+        }
+        mChildren[mCount] = null;
+        child.setParent(null);
+        changed();
+        return true;
     }
 
     public short insertChild(TLVNode child, short position) {
-        return 0;
+        if(child.getParent() != null || child == this
+                || position < 0 || position > mCount || mCount == (short)mChildren.length) {
+            error();
+        }
+        // refuse to create cycles
+        for(TLVNode n = getParent(); n != null; n = n.getParent()) {
+            if(n == child) {
+                error();
+            }
+        }
+        for(short i = mCount; i > position; i--) {
+            mChildren[i] = mChildren[(short)(i - 1)];
+        }
+        mChildren[position] = child;
+        mCount++;
+        child.setParent(this);
+        changed();
+        return position;
     }
 
     public short prependChild(TLVNode child) {
-        return 0;
+        return insertChild(child, (short)0);
     }
 
     public short appendChild(TLVNode child) {
-        return 0;
+        return insertChild(child, mCount);
+    }
+
+    /**
+     * Emit the node using a BER writer
+     * <p/>
+     * All children are visited and the writer sums their sizes,
+     * regardless of the cached length of this node.
+     * <p/>
+     * @param writer to use
+     */
+    public void write(BERWriter writer) {
+        writer.beginConstructed(getTag());
+        for(short i = 0; i < mCount; i++) {
+            mChildren[i].write(writer);
+        }
+        writer.endConstructed();
+    }
+
+    public short emit(byte[] buf, short off) {
+        off = emitHeader(buf, off);
+        for(short i = 0; i < mCount; i++) {
+            off = mChildren[i].emit(buf, off);
+        }
+        return off;
+    }
+
+    /**
+     * Internal: mark the cached length invalid
+     * @return true if the node was clean before
+     */
+    final boolean markDirty() {
+        if(mDirty) {
+            return false;
+        }
+        mDirty = true;
+        return true;
+    }
+
+    /**
+     * Internal: handle a change of the children
+     */
+    private void changed() {
+        markDirty();
+        invalidate();
     }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.JCSystem;
+
+/**
+ * Index of a TLV tree by tag
+ * <p/>
+ * Maps each tag to its first occurrence in document order using
+ * an open-addressing hash table, for constant-time lookups in
+ * large trees that do not change. The index must be rebuilt
+ * after the tree is modified.
+ * <p/>
+ * The table is allocated once on construction. Building keeps the
+ * position of the walk in each level on a transient stack, so
+ * the tree is indexed in a single linear pass.
+ * <p/>
+ * Only object trees are indexed. Trees in a TLVArena already link
+ * nodes by index and are searched using TLVQuery.
+ * <p/>
+ * @see org.openjavacard.lib.tlv.TLVQuery
+ */
+public final class TLVIndex {
+
+    /** Hash table: tags */
+    private final short[] mTags;
+    /** Hash table: nodes */
+    private final Object[] mNodes;
+    /** Mask for table positions */
+    private final short mMask;
+
+    /** Transient: index of the current node in its parent, per depth */
+    private final short[] mStack;
+
+    /**
+     * Construct an index for trees of up to 8 levels
+     * @param sizeBits log2 of the table size (1-14)
+     */
+    public TLVIndex(byte sizeBits) {
+        this(sizeBits, (byte)8, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    /**
+     * Construct an index
+     * @param sizeBits log2 of the table size (1-14)
+     * @param maxDepth maximum depth of indexed trees
+     * @param clearOn for transient walk state
+     */
+    public TLVIndex(byte sizeBits, byte maxDepth, byte clearOn) {
+        if(sizeBits < 1 || sizeBits > 14 || maxDepth < 1) {
+            TLVNode.error();
+        }
+        short size = (short)(1 << sizeBits);
+        mTags = new short[size];
+        mNodes = new Object[size];
+        mMask = (short)(size - 1);
+        mStack = JCSystem.makeTransientShortArray(maxDepth, clearOn);
+    }
+
+    /** Remove all entries */
+    public void clear() {
+        for(short i = 0; i < (short)mNodes.length; i++) {
+            mNodes[i] = null;
+        }
+    }
+
+    /**
+     * Index a tree
+     * <p/>
+     * All nodes are visited in document order. Fails if
+     * the tree is deeper than allowed on construction.
+     * <p/>
+     * @param root of the tree
+     */
+    public void build(TLVNode root) {
+        clear();
+        short[] stack = mStack;
+        short depth = 0;
+        TLVNode node = root;
+        while(true) {
+            add(node);
+            // descend into children
+            if(node.isConstructed() && ((TLVConstructed)node).getChildCount() > 0) {
+                if(depth == (short)stack.length) {
+                    TLVNode.error();
+                }
+                node = ((TLVConstructed)node).getChild((short)0);
+                stack[depth++] = 0;
+                continue;
+            }
+            // move to the next sibling, backing up as needed
+            while(depth > 0) {
+                TLVConstructed parent = node.getParent();
+                short next = (short)(stack[(short)(depth - 1)] + 1);
+                if(next < parent.getChildCount()) {
+                    node = parent.getChild(next);
+                    stack[(short)(depth - 1)] = next;
+                    break;
+                }
+                node = parent;
+                depth--;
+            }
+            if(depth == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Find the first node with a tag
+     * @param tag to look for
+     * @return the node or null
+     */
+    public TLVNode find(short tag) {
+        short pos = hash(tag);
+        for(short i = 0; i <= mMask; i++) {
+            Object node = mNodes[pos];
+            if(node == null) {
+                return null;
+            }
+            if(mTags[pos] == tag) {
+                return (TLVNode)node;
+            }
+            pos = (short)((pos + 1) & mMask);
+        }
+        return null;
+    }
+
+    /**
+     * Internal: add a node unless its tag is already present
+     * @param node to add
+     */
+    private void add(TLVNode node) {
+        short tag = node.getTag();
+        short pos = hash(tag);
+        for(short i = 0; i <= mMask; i++) {
+            if(mNodes[pos] == null) {
+                mTags[pos] = tag;
+                mNodes[pos] = node;
+                return;
+            }
+            if(mTags[pos] == tag) {
+                return;
+            }
+            pos = (short)((pos + 1) & mMask);
+        }
+        // table is full
+        TLVNode.error();
+    }
+
+    /**
+     * Internal: hash a tag
+     * @param tag to hash
+     * @return table position
+     */
+    private short hash(short tag) {
+        return (short)((tag ^ (tag >> 5) ^ (tag >> 11)) & mMask);
+    }
+
+}
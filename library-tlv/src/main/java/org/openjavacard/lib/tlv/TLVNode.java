@@ -1,8 +1,23 @@
 package org.openjavacard.lib.tlv;
 
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import org.openjavacard.lib.ber.BERLength;
+import org.openjavacard.lib.ber.BERTag;
+import org.openjavacard.lib.ber.BERWriter;
+
+/**
+ * Node of a mutable TLV tree
+ * <p/>
+ * Constructed nodes cache their length. Changes to a node mark
+ * its ancestors dirty so that only the changed path is recomputed
+ * when the length of the tree is needed again.
+ * <p/>
+ */
 public abstract class TLVNode {
 
     private short mTag;
+    private TLVConstructed mParent;
 
     protected TLVNode(short tag) {
         mTag = tag;
@@ -14,6 +29,15 @@ public abstract class TLVNode {
 
     public final void setTag(short tag) {
         mTag = tag;
+        invalidate();
+    }
+
+    public final TLVConstructed getParent() {
+        return mParent;
+    }
+
+    final void setParent(TLVConstructed parent) {
+        mParent = parent;
     }
 
     public final boolean isConstructed() {
@@ -24,6 +48,65 @@ public abstract class TLVNode {
         return this instanceof TLVPrimitive;
     }
 
+    /** @return length of the value */
     public abstract short getLength();
 
+    /** @return size of the node including its header */
+    public final short getEncodedSize() {
+        short len = getLength();
+        return (short)(BERTag.tagSize(mTag) + BERLength.lengthSize(len) + len);
+    }
+
+    /**
+     * Emit the node using a BER writer
+     * <p/>
+     * The writer computes all lengths itself, so cached lengths
+     * are not used. Prefer emit() when they matter.
+     * <p/>
+     * @param writer to use
+     */
+    public abstract void write(BERWriter writer);
+
+    /**
+     * Serialize the node into a buffer
+     * <p/>
+     * Uses cached lengths, so only dirty paths are recomputed.
+     * <p/>
+     * @param buf to write to
+     * @param off to write at
+     * @return offset after the node
+     */
+    public abstract short emit(byte[] buf, short off);
+
+    /**
+     * Internal: indicate that the encoded size of this node changed
+     * <p/>
+     * Marks all ancestors dirty. Stops at ancestors that
+     * are already dirty since their ancestors must be too.
+     */
+    final void invalidate() {
+        TLVConstructed parent = mParent;
+        while(parent != null && parent.markDirty()) {
+            parent = parent.getParent();
+        }
+    }
+
+    /**
+     * Internal: emit the header of the node
+     * @param buf to write to
+     * @param off to write at
+     * @return offset after the header
+     */
+    final short emitHeader(byte[] buf, short off) {
+        off = BERTag.putTag(buf, off, mTag);
+        return BERLength.putLength(buf, off, getLength());
+    }
+
+    /**
+     * Internal: throw an error
+     */
+    static void error() {
+        ISOException.throwIt(ISO7816.SW_UNKNOWN);
+    }
+
 }
@@ -1,6 +1,7 @@
 package org.openjavacard.lib.tlv;
 
 import javacard.framework.Util;
+import org.openjavacard.lib.ber.BERWriter;
 
 public class TLVPrimitive extends TLVNode {
 
@@ -23,12 +24,51 @@ public class TLVPrimitive extends TLVNode {
         return mLength;
     }
 
+    /** @return maximum length of the value */
+    public final short getCapacity() {
+        return mValue == null ? 0 : (short)mValue.length;
+    }
+
     public short readValue(byte[] buf, short off, short maxLen) {
-        return Util.arrayCopyNonAtomic(mValue, (short)0, buf, off, maxLen);
+        short len = mLength < maxLen ? mLength : maxLen;
+        return Util.arrayCopyNonAtomic(mValue, (short)0, buf, off, len);
     }
 
+    /**
+     * Replace the value
+     * <p/>
+     * The length may change within the capacity given on construction.
+     * Ancestors are only invalidated if the length changes.
+     * <p/>
+     * @param buf containing the value
+     * @param off of the value
+     * @param len of the value
+     * @return offset after the value in buf
+     */
     public short updateValue(byte[] buf, short off, short len) {
-        return Util.arrayCopyNonAtomic(buf, off, mValue, (short)0, len);
+        if(len < 0 || len > getCapacity()) {
+            error();
+        }
+        if(len > 0) {
+            Util.arrayCopyNonAtomic(buf, off, mValue, (short)0, len);
+        }
+        if(len != mLength) {
+            mLength = len;
+            invalidate();
+        }
+        return (short)(off + len);
+    }
+
+    public void write(BERWriter writer) {
+        writer.buildPrimitive(getTag(), mValue, (short)0, mLength);
+    }
+
+    public short emit(byte[] buf, short off) {
+        off = emitHeader(buf, off);
+        if(mLength > 0) {
+            off = Util.arrayCopyNonAtomic(mValue, (short)0, buf, off, mLength);
+        }
+        return off;
     }
 
 }
@@ -0,0 +1,273 @@
+/*
+ * openjavacard-libraries: Class libraries for JavaCard
+ * Copyright (C) 2018 Ingo Albrecht <copyright@promovicz.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.JCSystem;
+import org.openjavacard.lib.ber.BERTag;
+
+/**
+ * Compiled tag-path query over TLV trees
+ * <p/>
+ * A query such as 70/5F20 is given as the concatenation of the tags in
+ * encoded form, here 70 5F 20. The first tag is matched against the
+ * node the query is run on, each further tag against a child of the
+ * previous match. The byte 00 is a wildcard that matches any single
+ * node, so a path of any tag followed by 9F1F is encoded as 00 9F 1F.
+ * <p/>
+ * Matches are found in document order. Only subtrees that match a
+ * prefix of the path are visited. Queries do not allocate memory.
+ * <p/>
+ * Queries can be run on object trees and on trees in a TLVArena.
+ * For object trees the position of the walk in each level is kept
+ * in transient state so that moving to a sibling takes constant
+ * time. Positions are checked before use, so a stale position after
+ * the tree was modified or another root was queried only costs
+ * one linear lookup in the affected level.
+ * <p/>
+ * @see org.openjavacard.lib.tlv.TLVIndex
+ */
+public final class TLVQuery {
+
+    /** Encoded tag byte matching any node */
+    public static final byte WILDCARD = 0x00;
+
+    /** Tag value used internally for wildcards */
+    private static final short TAG_ANY = 0x0000;
+
+    /** Compiled path */
+    private final short[] mPath;
+
+    /** Transient: index of the current node in its parent, per depth */
+    private final short[] mIdx;
+
+    /**
+     * Compile a query
+     * @param path in encoded form
+     */
+    public TLVQuery(byte[] path) {
+        this(path, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    /**
+     * Compile a query
+     * @param path in encoded form
+     * @param clearOn for transient walk state
+     */
+    public TLVQuery(byte[] path, byte clearOn) {
+        short len = (short)path.length;
+        // count and validate tags
+        short count = 0;
+        short off = 0;
+        while(off < len) {
+            if(BERTag.tagIsLong((short)(path[off++] << 8))) {
+                if(off >= len || (path[off++] & 0x80) != 0) {
+                    TLVNode.error();
+                }
+            }
+            count++;
+        }
+        if(count == 0) {
+            TLVNode.error();
+        }
+        // decode tags
+        mPath = new short[count];
+        off = 0;
+        for(short i = 0; i < count; i++) {
+            byte b0 = path[off++];
+            byte b1 = 0;
+            if(BERTag.tagIsLong((short)(b0 << 8))) {
+                b1 = path[off++];
+            }
+            mPath[i] = (short)((b0 << 8) | (b1 & 0xFF));
+        }
+        mIdx = JCSystem.makeTransientShortArray(count, clearOn);
+    }
+
+    /**
+     * Find the first match
+     * @param root to run the query on
+     * @return first matching node or null
+     */
+    public TLVNode first(TLVNode root) {
+        if(!matches(root.getTag(), (short)0)) {
+            return null;
+        }
+        if(mPath.length == 1) {
+            return root;
+        }
+        return search(root, root, (short)0);
+    }
+
+    /**
+     * Find the next match
+     * @param root the query was run on
+     * @param previous match returned for the same root
+     * @return next matching node or null
+     */
+    public TLVNode next(TLVNode root, TLVNode previous) {
+        // determine depth of the previous match
+        short depth = 0;
+        for(TLVNode n = previous; n != root; n = n.getParent()) {
+            if(n == null) {
+                TLVNode.error();
+            }
+            depth++;
+        }
+        return search(root, previous, depth);
+    }
+
+    /**
+     * Find the first match in an arena
+     * @param arena holding the tree
+     * @param root node to run the query on
+     * @return first matching node or NONE
+     */
+    public short first(TLVArena arena, short root) {
+        if(!matches(arena.getTag(root), (short)0)) {
+            return TLVArena.NONE;
+        }
+        if(mPath.length == 1) {
+            return root;
+        }
+        return search(arena, root, (short)0);
+    }
+
+    /**
+     * Find the next match in an arena
+     * @param arena holding the tree
+     * @param root node the query was run on
+     * @param previous match returned for the same root
+     * @return next matching node or NONE
+     */
+    public short next(TLVArena arena, short root, short previous) {
+        // determine depth of the previous match
+        short depth = 0;
+        for(short n = previous; n != root; n = arena.getParent(n)) {
+            if(n == TLVArena.NONE) {
+                TLVNode.error();
+            }
+            depth++;
+        }
+        return search(arena, previous, depth);
+    }
+
+    /**
+     * Internal: continue searching in document order
+     * @param root of the search
+     * @param node to continue after
+     * @param depth of node below root
+     * @return next matching node or null
+     */
+    private TLVNode search(TLVNode root, TLVNode node, short depth) {
+        short[] idx = mIdx;
+        short last = (short)(mPath.length - 1);
+        while(true) {
+            // descend into nodes on the path
+            if(depth < last && node.isConstructed() && matches(node.getTag(), depth)) {
+                TLVConstructed c = (TLVConstructed)node;
+                if(c.getChildCount() > 0) {
+                    node = c.getChild((short)0);
+                    depth++;
+                    idx[depth] = 0;
+                    if(depth == last && matches(node.getTag(), depth)) {
+                        return node;
+                    }
+                    continue;
+                }
+            }
+            // move to the next sibling, backing up as needed
+            while(true) {
+                if(depth == 0) {
+                    return null;
+                }
+                TLVConstructed parent = node.getParent();
+                short count = parent.getChildCount();
+                short i = idx[depth];
+                if(i < 0 || i >= count || parent.getChild(i) != node) {
+                    i = parent.indexOfChild(node);
+                }
+                i++;
+                if(i < count) {
+                    node = parent.getChild(i);
+                    idx[depth] = i;
+                    break;
+                }
+                node = parent;
+                depth--;
+            }
+            if(depth == last && matches(node.getTag(), depth)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Internal: continue searching an arena in document order
+     * @param arena holding the tree
+     * @param node to continue after
+     * @param depth of node below root
+     * @return next matching node or NONE
+     */
+    private short search(TLVArena arena, short node, short depth) {
+        short last = (short)(mPath.length - 1);
+        while(true) {
+            // descend into nodes on the path
+            if(depth < last && arena.isConstructed(node) && matches(arena.getTag(node), depth)) {
+                short child = arena.getFirstChild(node);
+                if(child != TLVArena.NONE) {
+                    node = child;
+                    depth++;
+                    if(depth == last && matches(arena.getTag(node), depth)) {
+                        return node;
+                    }
+                    continue;
+                }
+            }
+            // move to the next sibling, backing up as needed
+            while(true) {
+                if(depth == 0) {
+                    return TLVArena.NONE;
+                }
+                short next = arena.getNextSibling(node);
+                if(next != TLVArena.NONE) {
+                    node = next;
+                    break;
+                }
+                node = arena.getParent(node);
+                depth--;
+            }
+            if(depth == last && matches(arena.getTag(node), depth)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Internal: check a tag against one step of the path
+     * @param tag to check
+     * @param depth of the step
+     * @return true if the tag matches
+     */
+    private boolean matches(short tag, short depth) {
+        short step = mPath[depth];
+        return step == TAG_ANY || step == tag;
+    }
+
+}
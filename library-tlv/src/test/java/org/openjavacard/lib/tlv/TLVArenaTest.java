@@ -0,0 +1,75 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TLVArenaTest {
+
+    byte[] value;
+
+    TLVArena mArena;
+
+    @Before
+    public void prepare() {
+        value = new byte[] { (byte)0x01, (byte)0x02, (byte)0x03, (byte)0x04 };
+        mArena = new TLVArena((short)4, (short)8, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test
+    public void testLinks() {
+        short top = mArena.addConstructed(TLVArena.NONE, TLVArena.NONE, (short)0x6F00);
+        short a = mArena.addPrimitive(top, TLVArena.NONE, (short)0x8400, value, (short)0, (short)3);
+        short b = mArena.addPrimitive(top, a, (short)0x8500, value, (short)3, (short)1);
+        mArena.finishConstructed(top);
+        Assert.assertEquals(3, mArena.getCount());
+        Assert.assertTrue(mArena.isConstructed(top));
+        Assert.assertFalse(mArena.isConstructed(a));
+        Assert.assertEquals(a, mArena.getFirstChild(top));
+        Assert.assertEquals(b, mArena.getNextSibling(a));
+        Assert.assertEquals(TLVArena.NONE, mArena.getNextSibling(b));
+        Assert.assertEquals(top, mArena.getParent(b));
+        Assert.assertEquals(TLVArena.NONE, mArena.getParent(top));
+        Assert.assertEquals(8, mArena.getLength(top));
+        Assert.assertEquals(10, mArena.getEncodedSize(top));
+        Assert.assertEquals(3, mArena.getValueOffset(b));
+    }
+
+    @Test
+    public void testReset() {
+        mArena.addPrimitive(TLVArena.NONE, TLVArena.NONE, (short)0x8400, value, (short)0, (short)4);
+        mArena.reset();
+        Assert.assertEquals(0, mArena.getCount());
+        // the heap is reused from the start
+        short node = mArena.addPrimitive(TLVArena.NONE, TLVArena.NONE, (short)0x8500, value, (short)1, (short)2);
+        Assert.assertEquals(0, node);
+        Assert.assertEquals(0, mArena.getValueOffset(node));
+        byte[] out = new byte[2];
+        mArena.readValue(node, out, (short)0);
+        Assert.assertArrayEquals(new byte[] { (byte)0x02, (byte)0x03 }, out);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testNodeOverflow() {
+        for(short i = 0; i < 5; i++) {
+            mArena.addConstructed(TLVArena.NONE, TLVArena.NONE, (short)0x6F00);
+        }
+    }
+
+    @Test(expected = ISOException.class)
+    public void testHeapOverflow() {
+        mArena.addPrimitive(TLVArena.NONE, TLVArena.NONE, (short)0x8400, value, (short)0, (short)4);
+        mArena.addPrimitive(TLVArena.NONE, (short)0, (short)0x8400, value, (short)0, (short)4);
+        mArena.addPrimitive(TLVArena.NONE, (short)1, (short)0x8400, value, (short)0, (short)1);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInvalidNode() {
+        mArena.addConstructed(TLVArena.NONE, TLVArena.NONE, (short)0x6F00);
+        mArena.reset();
+        mArena.getTag((short)0);
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openjavacard.lib.ber.BERReader;
+
+public class TLVBuilderTest {
+
+    /** FCI template followed by an empty octet string */
+    static final byte[] FCI = new byte[] {
+            (byte)0x6F, (byte)0x0F,
+              (byte)0x84, (byte)0x03, (byte)0x01, (byte)0x02, (byte)0x03,
+              (byte)0xA5, (byte)0x08,
+                (byte)0x88, (byte)0x01, (byte)0x02,
+                (byte)0x5F, (byte)0x2D, (byte)0x02, (byte)0x65, (byte)0x6E,
+            (byte)0x04, (byte)0x00,
+    };
+
+    BERReader mReader;
+    TLVArena mArena;
+    TLVBuilder mBuilder;
+
+    @Before
+    public void prepare() {
+        mReader = new BERReader((byte)8, JCSystem.CLEAR_ON_DESELECT);
+        mArena = new TLVArena((short)8, (short)32, JCSystem.CLEAR_ON_DESELECT);
+        mBuilder = new TLVBuilder(mArena, (byte)4, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    private void build(byte[] buf) {
+        mBuilder.begin();
+        mReader.parse(buf, (short)0, (short)buf.length, mBuilder);
+    }
+
+    @Test
+    public void testBuild() {
+        build(FCI);
+        Assert.assertEquals(6, mArena.getCount());
+        // FCI template
+        Assert.assertEquals(0x6F00, mArena.getTag((short)0));
+        Assert.assertEquals(15, mArena.getLength((short)0));
+        Assert.assertEquals(1, mArena.getFirstChild((short)0));
+        Assert.assertEquals(5, mArena.getNextSibling((short)0));
+        // DF name and proprietary template
+        Assert.assertEquals((short)0x8400, mArena.getTag((short)1));
+        Assert.assertEquals(2, mArena.getNextSibling((short)1));
+        Assert.assertEquals((short)0xA500, mArena.getTag((short)2));
+        Assert.assertEquals(8, mArena.getLength((short)2));
+        Assert.assertEquals(0, mArena.getParent((short)2));
+        // contents of the proprietary template
+        Assert.assertEquals(3, mArena.getFirstChild((short)2));
+        Assert.assertEquals(4, mArena.getNextSibling((short)3));
+        Assert.assertEquals(TLVArena.NONE, mArena.getNextSibling((short)4));
+        Assert.assertEquals(2, mArena.getParent((short)4));
+        byte[] lang = new byte[2];
+        mArena.readValue((short)4, lang, (short)0);
+        Assert.assertArrayEquals(new byte[] { (byte)0x65, (byte)0x6E }, lang);
+        // trailing octet string
+        Assert.assertEquals(0x0400, mArena.getTag((short)5));
+        Assert.assertEquals(0, mArena.getLength((short)5));
+        Assert.assertEquals(TLVArena.NONE, mArena.getParent((short)5));
+    }
+
+    @Test
+    public void testRebuild() {
+        build(FCI);
+        byte[] other = new byte[] { (byte)0x84, (byte)0x01, (byte)0x07 };
+        build(other);
+        Assert.assertEquals(1, mArena.getCount());
+        Assert.assertEquals(0, mArena.getValueOffset((short)0));
+        Assert.assertEquals(TLVArena.NONE, mArena.getNextSibling((short)0));
+        Assert.assertEquals(7, mArena.getHeap()[0]);
+    }
+
+}
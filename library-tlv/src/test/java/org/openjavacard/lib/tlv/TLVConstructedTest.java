@@ -0,0 +1,130 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISOException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TLVConstructedTest {
+
+    byte[] tmp;
+
+    TLVConstructed mRoot;
+    TLVConstructed mProp;
+    TLVPrimitive mPrio;
+    TLVPrimitive mLang;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[512];
+        // 6F { A5 { 88 01 02, 5F2D 02 65 6E } }
+        mRoot = new TLVConstructed((short)0x6F00);
+        mProp = new TLVConstructed((short)0xA500, (short)2);
+        mPrio = new TLVPrimitive((short)0x8800, (short)1);
+        mLang = new TLVPrimitive((short)0x5F2D, (short)4);
+        mRoot.appendChild(mProp);
+        mProp.appendChild(mPrio);
+        mProp.appendChild(mLang);
+        tmp[0] = (byte)0x02;
+        mPrio.updateValue(tmp, (short)0, (short)1);
+        tmp[0] = (byte)0x65;
+        tmp[1] = (byte)0x6E;
+        mLang.updateValue(tmp, (short)0, (short)2);
+    }
+
+    @Test
+    public void testLength() {
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertEquals(10, mRoot.getLength());
+        Assert.assertEquals(12, mRoot.getEncodedSize());
+        Assert.assertFalse(mRoot.isDirty());
+        Assert.assertFalse(mProp.isDirty());
+        short len = mRoot.emit(tmp, (short)0);
+        byte[] expected = new byte[] {
+                (byte)0x6F, (byte)0x0A,
+                  (byte)0xA5, (byte)0x08,
+                    (byte)0x88, (byte)0x01, (byte)0x02,
+                    (byte)0x5F, (byte)0x2D, (byte)0x02, (byte)0x65, (byte)0x6E,
+        };
+        Assert.assertArrayEquals(expected, Arrays.copyOf(tmp, len));
+    }
+
+    @Test
+    public void testUpdatePropagates() {
+        mRoot.getLength();
+        // same length: nothing to recompute
+        mLang.updateValue(tmp, (short)0, (short)2);
+        Assert.assertFalse(mProp.isDirty());
+        Assert.assertFalse(mRoot.isDirty());
+        // new length: the path to the root is dirty
+        mLang.updateValue(tmp, (short)0, (short)4);
+        Assert.assertTrue(mProp.isDirty());
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertEquals(12, mRoot.getLength());
+        Assert.assertFalse(mProp.isDirty());
+    }
+
+    @Test
+    public void testUpdateLongForm() {
+        TLVPrimitive big = new TLVPrimitive((short)0x5300, (short)200);
+        mRoot.appendChild(big);
+        // 53 81 C8 or 53 82 00 C8, depending on the length encoding
+        short header = (short)(big.getEncodedSize() - 200);
+        Assert.assertEquals(12 + header + 200 - 2, mRoot.getLength());
+        big.updateValue(tmp, (short)0, (short)100);
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertEquals(10 + 2 + 100, mRoot.getLength());
+    }
+
+    @Test
+    public void testInsertAndRemove() {
+        mRoot.getLength();
+        TLVPrimitive name = new TLVPrimitive((short)0x8400, (short)3);
+        Assert.assertEquals(0, mRoot.prependChild(name));
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertEquals(15, mRoot.getLength());
+        Assert.assertSame(mRoot, name.getParent());
+        Assert.assertEquals(1, mRoot.indexOfChild(mProp));
+        // removing a grandchild dirties both ancestors
+        Assert.assertTrue(mProp.removeChild(mPrio));
+        Assert.assertTrue(mProp.isDirty());
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertNull(mPrio.getParent());
+        Assert.assertFalse(mProp.hasChild(mPrio));
+        Assert.assertEquals(12, mRoot.getLength());
+        Assert.assertFalse(mProp.removeChild(mPrio));
+        // the removed node may be inserted elsewhere
+        mRoot.insertChild(mPrio, (short)1);
+        Assert.assertEquals(15, mRoot.getLength());
+        Assert.assertSame(mPrio, mRoot.getChild((short)1));
+    }
+
+    @Test
+    public void testRetag() {
+        mRoot.getLength();
+        mLang.setTag((short)0x8700);
+        Assert.assertTrue(mRoot.isDirty());
+        Assert.assertEquals(9, mRoot.getLength());
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInsertAttached() {
+        mRoot.appendChild(mPrio);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInsertCycle() {
+        mRoot.removeChild(mProp);
+        mProp.removeChild(mPrio);
+        mProp.appendChild(mRoot);
+        mRoot.appendChild(mProp);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testInsertFull() {
+        mProp.appendChild(new TLVPrimitive((short)0x8700));
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TLVIndexTest {
+
+    TLVConstructed mRoot;
+    TLVConstructed mApp1;
+    TLVConstructed mApp2;
+    TLVNode mAid1;
+    TLVNode mAid2;
+    TLVNode mLabel;
+
+    TLVIndex mIndex;
+
+    @Before
+    public void prepare() {
+        // 70 { 61 { 4F, 50 }, 61 { 4F } }
+        mRoot = new TLVConstructed((short)0x7000);
+        mApp1 = new TLVConstructed((short)0x6100);
+        mApp2 = new TLVConstructed((short)0x6100);
+        mAid1 = new TLVPrimitive((short)0x4F00, (short)1);
+        mAid2 = new TLVPrimitive((short)0x4F00, (short)1);
+        mLabel = new TLVPrimitive((short)0x5000, (short)1);
+        mRoot.appendChild(mApp1);
+        mApp1.appendChild(mAid1);
+        mApp1.appendChild(mLabel);
+        mRoot.appendChild(mApp2);
+        mApp2.appendChild(mAid2);
+        mIndex = new TLVIndex((byte)3, (byte)2, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Test
+    public void testFind() {
+        mIndex.build(mRoot);
+        Assert.assertSame(mRoot, mIndex.find((short)0x7000));
+        Assert.assertSame(mLabel, mIndex.find((short)0x5000));
+        // first occurrence in document order
+        Assert.assertSame(mApp1, mIndex.find((short)0x6100));
+        Assert.assertSame(mAid1, mIndex.find((short)0x4F00));
+        Assert.assertNull(mIndex.find((short)0x8400));
+    }
+
+    @Test
+    public void testRebuild() {
+        mIndex.build(mRoot);
+        mRoot.removeChild(mApp1);
+        mIndex.build(mRoot);
+        Assert.assertSame(mApp2, mIndex.find((short)0x6100));
+        Assert.assertSame(mAid2, mIndex.find((short)0x4F00));
+        Assert.assertNull(mIndex.find((short)0x5000));
+        mIndex.clear();
+        Assert.assertNull(mIndex.find((short)0x7000));
+    }
+
+    @Test
+    public void testSubtree() {
+        mIndex.build(mApp2);
+        Assert.assertSame(mApp2, mIndex.find((short)0x6100));
+        Assert.assertSame(mAid2, mIndex.find((short)0x4F00));
+        Assert.assertNull(mIndex.find((short)0x7000));
+    }
+
+    @Test
+    public void testPrimitiveRoot() {
+        mIndex.build(mLabel);
+        Assert.assertSame(mLabel, mIndex.find((short)0x5000));
+        Assert.assertNull(mIndex.find((short)0x6100));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testTooDeep() {
+        TLVConstructed outer = new TLVConstructed((short)0x7100);
+        outer.appendChild(mRoot);
+        mIndex.build(outer);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testTableFull() {
+        TLVConstructed root = new TLVConstructed((short)0x7000, (short)8);
+        for(short i = 1; i <= 8; i++) {
+            root.appendChild(new TLVPrimitive((short)((0x80 + i) << 8)));
+        }
+        mIndex.build(root);
+    }
+
+}
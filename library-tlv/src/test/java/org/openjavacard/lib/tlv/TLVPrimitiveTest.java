@@ -0,0 +1,50 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISOException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TLVPrimitiveTest {
+
+    byte[] tmp;
+
+    TLVPrimitive mNode;
+
+    @Before
+    public void prepare() {
+        tmp = new byte[] { (byte)0x00, (byte)0x11, (byte)0x22, (byte)0x33, (byte)0x44 };
+        mNode = new TLVPrimitive((short)0x8400, (short)4);
+    }
+
+    @Test
+    public void testUpdateValue() {
+        Assert.assertEquals(4, mNode.getCapacity());
+        // returns the offset after the value in the source buffer
+        Assert.assertEquals(4, mNode.updateValue(tmp, (short)1, (short)3));
+        Assert.assertEquals(3, mNode.getLength());
+        byte[] out = new byte[8];
+        Assert.assertEquals(5, mNode.readValue(out, (short)2, (short)8));
+        Assert.assertEquals((byte)0x11, out[2]);
+        Assert.assertEquals((byte)0x33, out[4]);
+        Assert.assertEquals((byte)0x00, out[5]);
+        // reads are limited by the caller
+        Assert.assertEquals(1, mNode.readValue(out, (short)0, (short)1));
+    }
+
+    @Test
+    public void testEmpty() {
+        TLVPrimitive empty = new TLVPrimitive((short)0x0400);
+        Assert.assertEquals(0, empty.getCapacity());
+        Assert.assertEquals(2, empty.updateValue(tmp, (short)2, (short)0));
+        Assert.assertEquals(2, empty.emit(tmp, (short)0));
+        Assert.assertEquals((byte)0x04, tmp[0]);
+        Assert.assertEquals((byte)0x00, tmp[1]);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testUpdateBeyondCapacity() {
+        mNode.updateValue(tmp, (short)0, (short)5);
+    }
+
+}
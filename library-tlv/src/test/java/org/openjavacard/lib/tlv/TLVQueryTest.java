@@ -0,0 +1,193 @@
+package org.openjavacard.lib.tlv;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openjavacard.lib.ber.BERReader;
+
+public class TLVQueryTest {
+
+    /** Record with two application templates */
+    static final byte[] RECORD = new byte[] {
+            (byte)0x70, (byte)0x15,
+              (byte)0x5F, (byte)0x20, (byte)0x01, (byte)0x41,
+              (byte)0x9F, (byte)0x1F, (byte)0x01, (byte)0x42,
+              (byte)0x61, (byte)0x06,
+                (byte)0x4F, (byte)0x01, (byte)0x01,
+                (byte)0x50, (byte)0x01, (byte)0x02,
+              (byte)0x61, (byte)0x03,
+                (byte)0x4F, (byte)0x01, (byte)0x03,
+    };
+
+    TLVConstructed mRoot;
+    TLVNode mName;
+    TLVNode mTrack;
+    TLVConstructed mApp1;
+    TLVNode mAid1;
+    TLVNode mLabel1;
+    TLVConstructed mApp2;
+    TLVNode mAid2;
+
+    TLVArena mArena;
+
+    @Before
+    public void prepare() {
+        // object tree equivalent to RECORD
+        mRoot = new TLVConstructed((short)0x7000);
+        mName = new TLVPrimitive((short)0x5F20, (short)1);
+        mTrack = new TLVPrimitive((short)0x9F1F, (short)1);
+        mApp1 = new TLVConstructed((short)0x6100);
+        mAid1 = new TLVPrimitive((short)0x4F00, (short)1);
+        mLabel1 = new TLVPrimitive((short)0x5000, (short)1);
+        mApp2 = new TLVConstructed((short)0x6100);
+        mAid2 = new TLVPrimitive((short)0x4F00, (short)1);
+        mRoot.appendChild(mName);
+        mRoot.appendChild(mTrack);
+        mRoot.appendChild(mApp1);
+        mApp1.appendChild(mAid1);
+        mApp1.appendChild(mLabel1);
+        mRoot.appendChild(mApp2);
+        mApp2.appendChild(mAid2);
+        // arena built from RECORD
+        mArena = new TLVArena((short)8, (short)16, JCSystem.CLEAR_ON_DESELECT);
+        TLVBuilder builder = new TLVBuilder(mArena, (byte)4, JCSystem.CLEAR_ON_DESELECT);
+        BERReader reader = new BERReader((byte)4, JCSystem.CLEAR_ON_DESELECT);
+        builder.begin();
+        reader.parse(RECORD, (short)0, (short)RECORD.length, builder);
+    }
+
+    private static TLVQuery query(byte[] path) {
+        return new TLVQuery(path, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    private void assertMatches(byte[] path, TLVNode[] expected) {
+        TLVQuery q = query(path);
+        TLVNode n = q.first(mRoot);
+        for(int i = 0; i < expected.length; i++) {
+            Assert.assertSame("match " + i, expected[i], n);
+            n = q.next(mRoot, n);
+        }
+        Assert.assertNull(n);
+    }
+
+    private void assertArenaMatches(byte[] path, short[] expected) {
+        TLVQuery q = query(path);
+        short n = q.first(mArena, (short)0);
+        for(int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("match " + i, expected[i], n);
+            n = q.next(mArena, (short)0, n);
+        }
+        Assert.assertEquals(TLVArena.NONE, n);
+    }
+
+    @Test
+    public void testRoot() {
+        assertMatches(new byte[] { (byte)0x70 }, new TLVNode[] { mRoot });
+        assertMatches(new byte[] { (byte)0x00 }, new TLVNode[] { mRoot });
+        assertMatches(new byte[] { (byte)0x71 }, new TLVNode[0]);
+    }
+
+    @Test
+    public void testLongTag() {
+        assertMatches(new byte[] { (byte)0x70, (byte)0x9F, (byte)0x1F },
+                new TLVNode[] { mTrack });
+    }
+
+    @Test
+    public void testRepeated() {
+        assertMatches(new byte[] { (byte)0x70, (byte)0x61, (byte)0x4F },
+                new TLVNode[] { mAid1, mAid2 });
+    }
+
+    @Test
+    public void testWildcard() {
+        assertMatches(new byte[] { (byte)0x70, (byte)0x00 },
+                new TLVNode[] { mName, mTrack, mApp1, mApp2 });
+        assertMatches(new byte[] { (byte)0x00, (byte)0x00, (byte)0x00 },
+                new TLVNode[] { mAid1, mLabel1, mAid2 });
+        assertMatches(new byte[] { (byte)0x00, (byte)0x00, (byte)0x50 },
+                new TLVNode[] { mLabel1 });
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertMatches(new byte[] { (byte)0x70, (byte)0x5F, (byte)0x20, (byte)0x00 },
+                new TLVNode[0]);
+        assertMatches(new byte[] { (byte)0x70, (byte)0x62, (byte)0x4F },
+                new TLVNode[0]);
+    }
+
+    @Test
+    public void testModifiedBetweenCalls() {
+        TLVQuery q = query(new byte[] { (byte)0x70, (byte)0x61, (byte)0x4F });
+        TLVNode n = q.first(mRoot);
+        Assert.assertSame(mAid1, n);
+        // shift the positions recorded by the walk
+        mApp1.prependChild(new TLVPrimitive((short)0x8700));
+        mRoot.prependChild(new TLVPrimitive((short)0x8700));
+        Assert.assertSame(mAid2, q.next(mRoot, n));
+    }
+
+    @Test
+    public void testInterleaved() {
+        TLVQuery q = query(new byte[] { (byte)0x00, (byte)0x00, (byte)0x4F });
+        TLVNode n = q.first(mRoot);
+        // running on another tree in between
+        TLVConstructed other = new TLVConstructed((short)0x7000);
+        TLVConstructed app = new TLVConstructed((short)0x6100);
+        TLVNode aid = new TLVPrimitive((short)0x4F00, (short)1);
+        other.appendChild(app);
+        app.appendChild(aid);
+        Assert.assertSame(aid, q.first(other));
+        Assert.assertSame(mAid2, q.next(mRoot, n));
+        Assert.assertNull(q.next(other, aid));
+    }
+
+    @Test
+    public void testArena() {
+        assertArenaMatches(new byte[] { (byte)0x70 },
+                new short[] { 0 });
+        assertArenaMatches(new byte[] { (byte)0x70, (byte)0x9F, (byte)0x1F },
+                new short[] { 2 });
+        assertArenaMatches(new byte[] { (byte)0x70, (byte)0x61, (byte)0x4F },
+                new short[] { 4, 7 });
+        assertArenaMatches(new byte[] { (byte)0x00, (byte)0x00 },
+                new short[] { 1, 2, 3, 6 });
+        assertArenaMatches(new byte[] { (byte)0x00, (byte)0x00, (byte)0x00 },
+                new short[] { 4, 5, 7 });
+        assertArenaMatches(new byte[] { (byte)0x71, (byte)0x61 },
+                new short[0]);
+    }
+
+    @Test
+    public void testArenaSubtree() {
+        assertArenaMatches(new byte[] { (byte)0x61, (byte)0x00 },
+                new short[0]);
+        TLVQuery q = query(new byte[] { (byte)0x61, (byte)0x00 });
+        short n = q.first(mArena, (short)3);
+        Assert.assertEquals(4, n);
+        n = q.next(mArena, (short)3, n);
+        Assert.assertEquals(5, n);
+        // does not continue into the sibling of the root
+        Assert.assertEquals(TLVArena.NONE, q.next(mArena, (short)3, n));
+    }
+
+    @Test(expected = ISOException.class)
+    public void testEmptyPath() {
+        query(new byte[0]);
+    }
+
+    @Test(expected = ISOException.class)
+    public void testTruncatedPath() {
+        query(new byte[] { (byte)0x70, (byte)0x9F });
+    }
+
+    @Test(expected = ISOException.class)
+    public void testForeignPrevious() {
+        TLVQuery q = query(new byte[] { (byte)0x61, (byte)0x4F });
+        q.next(mApp2, mAid1);
+    }
+
+}